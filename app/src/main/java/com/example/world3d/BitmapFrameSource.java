@@ -0,0 +1,44 @@
+package com.example.world3d;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Overlay frames stored as one image file per frame, e.g. PNGs exported from a weather model. All
+ * decodes reuse one Bitmap, so playback allocates nothing per frame. */
+public class BitmapFrameSource implements OverlayFrameSource {
+
+    private final File[] mFiles;
+    private final BitmapFactory.Options mOptions = new BitmapFactory.Options();
+
+    /** @param files Frame images in playback order, all of the size given to OverlayPlayback. */
+    public BitmapFrameSource(File[] files) {
+        mFiles = files;
+        mOptions.inScaled = false;   // No pre-scaling
+        mOptions.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        mOptions.inMutable = true;
+    }
+
+    @Override
+    public int getFrameCount() {
+        return mFiles.length;
+    }
+
+    @Override
+    public void decode(int frame, ByteBuffer pixels) throws IOException {
+        Bitmap bitmap = BitmapFactory.decodeFile(mFiles[frame].getPath(), mOptions);
+        if (bitmap == null) {
+            throw new IOException("Error decoding overlay frame " + mFiles[frame]);
+        }
+        // Decode the next frame into the same pixels.
+        mOptions.inBitmap = bitmap;
+        // ARGB_8888 bitmaps are stored as premultiplied RGBA bytes, which is what the shader expects.
+        pixels.position(0);
+        bitmap.copyPixelsToBuffer(pixels);
+        pixels.position(0);
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.world3d;
+
+/**
+ * Globe rotation and the momentum that keeps it turning after a drag or fling. Advanced once per
+ * frame by OpenGLRenderer, and by the headless trace replay, so both see exactly the same motion. */
+public class CameraMotion {
+
+    private static final float slowCoefficient = 0.93f;
+    private static final float verticalMovementRatio = 0.7f;
+    private static final int maxAngle = 45;
+
+    public float xAngle = -70; // X -70 and Y -16 centers initial rotation above Mediterranean
+    public float yAngle = -16;
+    public float xMovement = 0;
+    public float yMovement = 0;
+
+    /** Slows the movement down and applies it to the angles. Call once per frame. */
+    public void step() {
+        // Slowing down yMovement and xMovement
+        if (Math.abs(xMovement) < 0.08) {
+            xMovement = 0;
+        } else {
+            xMovement = Math.round(xMovement * slowCoefficient * 100) / 100f;
+        }
+        if (Math.abs(yMovement) < 0.08) {
+            yMovement = 0;
+        } else {
+            yMovement = Math.round(yMovement * slowCoefficient * 100) / 100f;
+        }
+        xAngle += xMovement;
+        yAngle += yMovement * verticalMovementRatio;
+
+        // Restrict yAngle to +/- maxAngle degrees
+        yAngle = Math.min(maxAngle, Math.max(-maxAngle, yAngle));
+        // Restrict xAngle to 0 - 360 degrees
+        xAngle = (xAngle + 360) % 360;
+    }
+}
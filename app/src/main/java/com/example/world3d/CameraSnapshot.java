@@ -0,0 +1,24 @@
+package com.example.world3d;
+
+/**
+ * Camera state of the last drawn frame, published by the GL thread for picking on the UI thread. */
+public class CameraSnapshot {
+
+    public float xAngle;
+    public float yAngle;
+    public final float[] eye = new float[3];
+    public final float[] inverseViewMatrix = new float[16];
+    public final float[] inverseProjectionMatrix = new float[16];
+    public int viewportWidth;
+    public int viewportHeight;
+
+    public void copyFrom(CameraSnapshot other) {
+        xAngle = other.xAngle;
+        yAngle = other.yAngle;
+        System.arraycopy(other.eye, 0, eye, 0, 3);
+        System.arraycopy(other.inverseViewMatrix, 0, inverseViewMatrix, 0, 16);
+        System.arraycopy(other.inverseProjectionMatrix, 0, inverseProjectionMatrix, 0, 16);
+        viewportWidth = other.viewportWidth;
+        viewportHeight = other.viewportHeight;
+    }
+}
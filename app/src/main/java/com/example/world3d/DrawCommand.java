@@ -0,0 +1,45 @@
+package com.example.world3d;
+
+import java.nio.FloatBuffer;
+
+/**
+ * One glDrawArrays call of GL_TRIANGLES and the state it needs, submitted to a RenderQueue by a
+ * RenderLayer. Layers keep their commands and reuse them every frame; bump the layer version after
+ * changing a command, the queue only looks at layers again when their version changed. */
+public class DrawCommand {
+
+    /** Program handle. Programs bind a_Position, a_Color and a_TexCoordinate to locations 0, 1 and 2. */
+    public int program;
+    /** Texture handle per texture unit, 0 for units the program doesn't sample. */
+    public final int[] textures = new int[RenderQueue.TEXTURE_UNITS];
+    /** One of RenderQueue.BLEND_OPAQUE, BLEND_PREMULTIPLIED and BLEND_ADDITIVE. */
+    public int blend = RenderQueue.BLEND_OPAQUE;
+
+    /** x, y, z per vertex. */
+    public FloatBuffer positions;
+    /** u, v per vertex, or null if the program doesn't use them. */
+    public FloatBuffer textureCoordinates;
+    /** r, g, b, a per vertex, or null for constant white. */
+    public FloatBuffer colors;
+    /** First vertex and vertex count. Commands drawing adjacent ranges of the same buffers are merged. */
+    public int first;
+    public int count;
+
+    /** Set by the queue when sorting. */
+    int order;
+    int sequence;
+
+    /** Whether both commands can be drawn without any state change in between. */
+    boolean hasSameState(DrawCommand other) {
+        if (program != other.program || blend != other.blend || positions != other.positions
+                || textureCoordinates != other.textureCoordinates || colors != other.colors) {
+            return false;
+        }
+        for (int i = 0; i < textures.length; i++) {
+            if (textures[i] != other.textures[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.world3d;
+
+/**
+ * Estimates pointer velocity with a least squares line fit over the most recent samples, so the
+ * result depends on where the finger actually was and when, not on how the events were batched.
+ * Samples live in a fixed ring buffer; nothing is allocated after construction. */
+public class FlingVelocityTracker {
+
+    /** Samples kept in the ring buffer. */
+    private static final int CAPACITY = 20;
+    /** Only samples this close to the newest one take part in the fit. */
+    private static final long HORIZON_MS = 100;
+
+    private final long[] mTimes = new long[CAPACITY];
+    private final float[] mX = new float[CAPACITY];
+    private final float[] mY = new float[CAPACITY];
+    private int mNewest = -1;
+    private int mCount = 0;
+
+    /** Result of the last computeVelocity() call, in pixels per millisecond. */
+    public float xVelocity;
+    public float yVelocity;
+
+    public void clear() {
+        mNewest = -1;
+        mCount = 0;
+        xVelocity = 0;
+        yVelocity = 0;
+    }
+
+    /**
+     * Adds one pointer position.
+     * @param time Event time in milliseconds, samples must arrive in order.
+     * @param x Pointer x in pixels.
+     * @param y Pointer y in pixels. */
+    public void addSample(long time, float x, float y) {
+        mNewest = (mNewest + 1) % CAPACITY;
+        mTimes[mNewest] = time;
+        mX[mNewest] = x;
+        mY[mNewest] = y;
+        mCount = Math.min(CAPACITY, mCount + 1);
+    }
+
+    /**
+     * Fits x(t) and y(t) with straight lines over the samples within the horizon and stores their
+     * slopes in xVelocity and yVelocity. Fewer than two usable samples give zero velocity. */
+    public void computeVelocity() {
+        xVelocity = 0;
+        yVelocity = 0;
+        if (mCount < 2) {
+            return;
+        }
+
+        long newestTime = mTimes[mNewest];
+        double sumT = 0, sumTT = 0, sumX = 0, sumTX = 0, sumY = 0, sumTY = 0;
+        int n = 0;
+        for (int i = 0; i < mCount; i++) {
+            int index = (mNewest - i + CAPACITY) % CAPACITY;
+            // Times relative to the newest sample keep the sums small.
+            double t = mTimes[index] - newestTime;
+            if (-t > HORIZON_MS) {
+                break;
+            }
+            sumT += t;
+            sumTT += t * t;
+            sumX += mX[index];
+            sumTX += t * mX[index];
+            sumY += mY[index];
+            sumTY += t * mY[index];
+            n++;
+        }
+
+        double denominator = n * sumTT - sumT * sumT;
+        if (n < 2 || denominator <= 0) {
+            return;
+        }
+        xVelocity = (float) ((n * sumTX - sumT * sumX) / denominator);
+        yVelocity = (float) ((n * sumTY - sumT * sumY) / denominator);
+    }
+}
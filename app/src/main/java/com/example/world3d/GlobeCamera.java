@@ -0,0 +1,195 @@
+package com.example.world3d;
+
+/**
+ * Camera of the globe, in plain Java so the same code runs on the GL thread of OpenGLRenderer and
+ * without android.opengl (headless snapshots, trace replays, tests). The eye circles the globe center
+ * at distance 5 for the pitch, the globe itself turns about its axis for the yaw. Matrices are column
+ * major like android.opengl.Matrix. */
+public class GlobeCamera {
+
+    public float xAngle = -70; // Initial rotation of the app
+    public float yAngle = -16;
+    /** Zoom factor, 0.25 - 1. Scales the frustum, smaller shows less of the globe. */
+    public float scale = 1;
+
+    /** Eye position in world space. */
+    public final float[] eye = new float[3];
+    public final float[] modelMatrix = new float[16];
+    public final float[] viewMatrix = new float[16];
+    public final float[] projectionMatrix = new float[16];
+    public final float[] modelViewMatrix = new float[16];
+    public final float[] mvpMatrix = new float[16];
+
+    private final float[] mTemp = new float[16];
+    /** Viewport of the last update(). */
+    private int mWidth;
+    private int mHeight;
+
+    /**
+     * Recalculates all matrices for the current angles and zoom and the given viewport.
+     * @return The combined model/view/projection matrix. */
+    public float[] update(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+
+        // Pitch moves the eye on a circle around the globe, looking through the center.
+        double angle = -yAngle * Math.PI / 180;
+        eye[0] = 0f;
+        eye[1] = (float) Math.sin(angle) * 5f;
+        eye[2] = (float) Math.cos(angle) * 5f;
+        float lookY = (float) Math.sin(angle) * -5.0f;
+        float lookZ = (float) Math.cos(angle) * -5.0f;
+        float upY = (float) Math.cos(angle);
+        float upZ = (float) Math.sin(angle) * -1.0f;
+        setLookAt(viewMatrix, eye[0], eye[1], eye[2], 0f, lookY, lookZ, 0f, upY, upZ);
+
+        // The height stays the same while the width follows the aspect ratio.
+        final float ratio = (float) width / height;
+        frustum(projectionMatrix, -ratio * scale, ratio * scale, -1.0f * scale, 1.0f * scale, 1.0f, 10.0f);
+
+        // Yaw turns the globe.
+        setRotateY(modelMatrix, -xAngle);
+
+        multiply(modelViewMatrix, viewMatrix, modelMatrix);
+        multiply(mvpMatrix, projectionMatrix, modelViewMatrix);
+        return mvpMatrix;
+    }
+
+    /**
+     * Fills a snapshot of the last update() for picking with GlobePicker. The inverse view matrix is
+     * that of the initial eye position; picking applies the pitch itself. */
+    public void snapshot(CameraSnapshot snapshot) {
+        snapshot.xAngle = xAngle;
+        snapshot.yAngle = yAngle;
+        System.arraycopy(eye, 0, snapshot.eye, 0, 3);
+        setLookAt(mTemp, 0f, 0f, 5f, 0f, 0f, -5f, 0f, 1f, 0f);
+        invert(snapshot.inverseViewMatrix, mTemp);
+        invert(snapshot.inverseProjectionMatrix, projectionMatrix);
+        snapshot.viewportWidth = mWidth;
+        snapshot.viewportHeight = mHeight;
+    }
+
+    /**
+     * Same as Matrix.invertM(result, 0, m, 0), by Gauss-Jordan elimination in double precision.
+     * @return False if the matrix can't be inverted, result is left unchanged then. */
+    public static boolean invert(float[] result, float[] m) {
+        double[] a = new double[32];
+        for (int row = 0; row < 4; row++) {
+            for (int column = 0; column < 4; column++) {
+                a[row * 8 + column] = m[column * 4 + row];
+            }
+            a[row * 8 + 4 + row] = 1;
+        }
+        for (int column = 0; column < 4; column++) {
+            int pivot = column;
+            for (int row = column + 1; row < 4; row++) {
+                if (Math.abs(a[row * 8 + column]) > Math.abs(a[pivot * 8 + column])) {
+                    pivot = row;
+                }
+            }
+            if (a[pivot * 8 + column] == 0) {
+                return false;
+            }
+            for (int i = 0; i < 8; i++) {
+                double swap = a[column * 8 + i];
+                a[column * 8 + i] = a[pivot * 8 + i];
+                a[pivot * 8 + i] = swap;
+            }
+            double scale = 1 / a[column * 8 + column];
+            for (int i = 0; i < 8; i++) {
+                a[column * 8 + i] *= scale;
+            }
+            for (int row = 0; row < 4; row++) {
+                double factor = a[row * 8 + column];
+                if (row != column && factor != 0) {
+                    for (int i = 0; i < 8; i++) {
+                        a[row * 8 + i] -= factor * a[column * 8 + i];
+                    }
+                }
+            }
+        }
+        for (int row = 0; row < 4; row++) {
+            for (int column = 0; column < 4; column++) {
+                result[column * 4 + row] = (float) a[row * 8 + 4 + column];
+            }
+        }
+        return true;
+    }
+
+    /** Same as Matrix.multiplyMM(result, 0, lhs, 0, rhs, 0). */
+    public static void multiply(float[] result, float[] lhs, float[] rhs) {
+        for (int j = 0; j < 4; j++) {
+            for (int i = 0; i < 4; i++) {
+                result[j * 4 + i] = lhs[i] * rhs[j * 4] + lhs[4 + i] * rhs[j * 4 + 1]
+                        + lhs[8 + i] * rhs[j * 4 + 2] + lhs[12 + i] * rhs[j * 4 + 3];
+            }
+        }
+    }
+
+    /** Same as Matrix.setLookAtM(). */
+    private static void setLookAt(float[] m, float eyeX, float eyeY, float eyeZ, float centerX, float centerY,
+                                  float centerZ, float upX, float upY, float upZ) {
+        float fx = centerX - eyeX;
+        float fy = centerY - eyeY;
+        float fz = centerZ - eyeZ;
+        float rlf = 1.0f / (float) Math.sqrt(fx * fx + fy * fy + fz * fz);
+        fx *= rlf;
+        fy *= rlf;
+        fz *= rlf;
+
+        float sx = fy * upZ - fz * upY;
+        float sy = fz * upX - fx * upZ;
+        float sz = fx * upY - fy * upX;
+        float rls = 1.0f / (float) Math.sqrt(sx * sx + sy * sy + sz * sz);
+        sx *= rls;
+        sy *= rls;
+        sz *= rls;
+
+        float ux = sy * fz - sz * fy;
+        float uy = sz * fx - sx * fz;
+        float uz = sx * fy - sy * fx;
+
+        m[0] = sx; m[1] = ux; m[2] = -fx; m[3] = 0f;
+        m[4] = sy; m[5] = uy; m[6] = -fy; m[7] = 0f;
+        m[8] = sz; m[9] = uz; m[10] = -fz; m[11] = 0f;
+        m[12] = 0f; m[13] = 0f; m[14] = 0f; m[15] = 1f;
+
+        // translateM(m, 0, -eyeX, -eyeY, -eyeZ)
+        for (int i = 0; i < 4; i++) {
+            m[12 + i] += m[i] * -eyeX + m[4 + i] * -eyeY + m[8 + i] * -eyeZ;
+        }
+    }
+
+    /** Same as Matrix.frustumM(). */
+    private static void frustum(float[] m, float left, float right, float bottom, float top, float near, float far) {
+        final float rWidth = 1.0f / (right - left);
+        final float rHeight = 1.0f / (top - bottom);
+        final float rDepth = 1.0f / (near - far);
+        for (int i = 0; i < 16; i++) {
+            m[i] = 0f;
+        }
+        m[0] = 2.0f * (near * rWidth);
+        m[5] = 2.0f * (near * rHeight);
+        m[8] = (right + left) * rWidth;
+        m[9] = (top + bottom) * rHeight;
+        m[10] = (far + near) * rDepth;
+        m[11] = -1.0f;
+        m[14] = 2.0f * (far * near * rDepth);
+    }
+
+    /** Same as Matrix.setRotateM(m, 0, angle, 0, 1, 0). */
+    private static void setRotateY(float[] m, float angle) {
+        double radians = angle * Math.PI / 180;
+        float s = (float) Math.sin(radians);
+        float c = (float) Math.cos(radians);
+        for (int i = 0; i < 16; i++) {
+            m[i] = 0f;
+        }
+        m[0] = c;
+        m[2] = -s;
+        m[5] = 1f;
+        m[8] = s;
+        m[10] = c;
+        m[15] = 1f;
+    }
+}
@@ -0,0 +1,225 @@
+package com.example.world3d;
+
+/**
+ * Finds the map position under a touch, against the plain sphere or the terrain, from a camera
+ * snapshot of the frame the user saw. Plain Java, so the headless trace replay picks exactly like
+ * OpenGLView. Results of the last pick() are left in the public fields. */
+public class GlobePicker {
+
+    // Ray marching precision for picking on terrain
+    private static final int terrainMarchSteps = 24;
+    private static final int terrainRefineSteps = 8;
+
+    /** Whether the touch ray hit the globe. */
+    public boolean hit;
+    /**
+     * Map polar coordinates: longitude 0 - 2*PI and latitude -PI/2 (north) - PI/2 (south), NaN
+     * without a hit. */
+    public final float[] polar = new float[2];
+    /** Map texture coordinates of the hit, the layout of the map, overlay and region raster. */
+    public float u;
+    public float v;
+
+    /**
+     * Picks the globe at a touch position.
+     * @param terrain Terrain drawn on the globe, or null for the plain sphere.
+     * @param radius Radius of the plain sphere. */
+    public void pick(CameraSnapshot camera, Terrain terrain, float radius, float touchX, float touchY) {
+        float angleX = camera.xAngle - 90f; // compensation for texture shift
+        float angleY = -camera.yAngle;
+
+        float angleXrad = (float) (angleX * Math.PI / 180);
+        float angleYrad = (float) (angleY * Math.PI / 180);
+
+        float[] ray = castRay(camera, touchX, touchY);
+        float[] intersect = (terrain != null)
+                ? terrainIntersectionPoint(ray, terrain, angleXrad, angleYrad)
+                : intersectionPoint(ray, camera.eye, radius);
+        hit = Float.compare(intersect[0], Float.NaN) != 0;
+
+        float[] mapPolar = getMapPolar(intersect, angleXrad, angleYrad);
+        polar[0] = mapPolar[0];
+        polar[1] = mapPolar[1];
+
+        u = (float) (polar[0] / (Math.PI * 2));
+        v = (float) ((polar[1] + Math.PI / 2) / Math.PI);
+    }
+
+    /** Whether the last hit is far enough from the poles for a marker. */
+    public boolean isMarkerAllowed() {
+        return polar[1] > -Math.PI / 2 + 0.3 && polar[1] < Math.PI / 2 - 0.4;
+    }
+
+
+    private float[] intersectionPoint(float[] vector, float[] eye, float radius) {
+        float[] origin = {0f, 0f, 5f};
+        float[] intersection = new float[4];
+        float a, b, c, t;
+
+        a = vector[0] * vector[0] + vector[1] * vector[1] + vector[2] * vector[2];
+        b = origin[0] * vector[0] * 2 + origin[1] * vector[1] * 2 + origin[2] * vector[2] * 2;
+        c = origin[0]*origin[0] + origin[1]*origin[1] + origin[2]*origin[2] - radius*radius;
+
+        t = minRoot(a, b, c);
+        intersection[0] = origin[0] + vector[0] * t;
+        intersection[1] = origin[1] + vector[1] * t;
+        intersection[2] = origin[2] + vector[2] * t;
+        intersection[3] = 1.0f;
+        return intersection;
+    }
+
+
+    /**
+     * Finds where a touch ray hits the displaced terrain. The ray is marched through the shell between
+     * the sphere enclosing all relief and the sea level sphere, then refined by bisection, so a tap
+     * always costs a fixed number of elevation lookups. */
+    private float[] terrainIntersectionPoint(float[] vector, Terrain terrain, float angleXrad, float angleYrad) {
+        float[] origin = {0f, 0f, 5f};
+        float a, b, cOuter, cInner;
+
+        a = vector[0] * vector[0] + vector[1] * vector[1] + vector[2] * vector[2];
+        b = origin[0] * vector[0] * 2 + origin[1] * vector[1] * 2 + origin[2] * vector[2] * 2;
+        cOuter = origin[0]*origin[0] + origin[1]*origin[1] + origin[2]*origin[2] - terrain.maxRadius()*terrain.maxRadius();
+        cInner = origin[0]*origin[0] + origin[1]*origin[1] + origin[2]*origin[2] - terrain.radius*terrain.radius;
+
+        float tStart = minRoot(a, b, cOuter);
+        float tEnd = minRoot(a, b, cInner);
+        boolean hitsSeaLevel = !Float.isNaN(tEnd);
+        if (Float.isNaN(tStart)) {
+            return pointOnRay(origin, vector, Float.NaN);
+        }
+        if (!hitsSeaLevel) {
+            // Ray only grazes the relief, march up to its closest approach to the center.
+            tEnd = -b / (2 * a);
+        }
+
+        float tPrevious = tStart;
+        for (int i = 1; i <= terrainMarchSteps; i++) {
+            float t = tStart + (tEnd - tStart) * i / terrainMarchSteps;
+            if (isBelowTerrain(pointOnRay(origin, vector, t), terrain, angleXrad, angleYrad)) {
+                for (int j = 0; j < terrainRefineSteps; j++) {
+                    float middle = (tPrevious + t) / 2;
+                    if (isBelowTerrain(pointOnRay(origin, vector, middle), terrain, angleXrad, angleYrad)) {
+                        t = middle;
+                    } else {
+                        tPrevious = middle;
+                    }
+                }
+                return pointOnRay(origin, vector, t);
+            }
+            tPrevious = t;
+        }
+        return pointOnRay(origin, vector, hitsSeaLevel ? tEnd : Float.NaN);
+    }
+
+
+    private boolean isBelowTerrain(float[] point, Terrain terrain, float angleXrad, float angleYrad) {
+        float[] polar = getMapPolar(point, angleXrad, angleYrad);
+        float u = (float) (polar[0] / (Math.PI * 2));
+        float v = (float) ((polar[1] + Math.PI / 2) / Math.PI);
+        float distance = (float) Math.sqrt(point[0]*point[0] + point[1]*point[1] + point[2]*point[2]);
+        return distance <= terrain.surfaceRadius(u, v);
+    }
+
+
+    private float[] pointOnRay(float[] origin, float[] vector, float t) {
+        float[] point = new float[4];
+        point[0] = origin[0] + vector[0] * t;
+        point[1] = origin[1] + vector[1] * t;
+        point[2] = origin[2] + vector[2] * t;
+        point[3] = 1.0f;
+        return point;
+    }
+
+
+    /**
+     * Converts a point in touch ray space into map polar coordinates: longitude 0 - 2*PI and
+     * latitude -PI/2 (north) - PI/2 (south), matching the texture layout. */
+    private float[] getMapPolar(float[] point, float angleXrad, float angleYrad) {
+        float[] pointRotated = rotatePoint(point, angleXrad, angleYrad);
+
+        float[] polar = getPolar(pointRotated[0], pointRotated[1], pointRotated[2]);
+
+        polar[0] += angleXrad;
+        // Restrict X to 0 - 2*PI radians
+        polar[0] = (float) ((polar[0] + Math.PI * 2) % (Math.PI * 2));
+        // Restrict Y to 0 - PI radians
+        polar[1] = (float) Math.min(Math.PI / 2, Math.max(-Math.PI / 2, polar[1]));
+        return polar;
+    }
+
+
+    private float minRoot(float a, float b, float c) {
+        float root1, root2, sqrtD;
+
+        sqrtD = (float) Math.sqrt((b*b) - (4*a*c));
+        root1 = (-b + sqrtD) / (2*a);
+        root2 = (-b - sqrtD) / (2*a);
+
+        return Math.min(root1, root2);
+    }
+
+
+    private float[] getPolar(float x, float y, float z) {
+        float[] polarCoords = new float[2];
+        float h = (float) Math.sqrt(x*x + z*z);
+        float r = (float) Math.sqrt(x*x + y*y + z*z); // Equals radius on the plain sphere
+        polarCoords[0] = (float) Math.asin(x/h);
+        polarCoords[1] = (float) Math.asin(y/r);
+        return polarCoords;
+    }
+
+
+    private float[] castRay(CameraSnapshot camera, float posX, float posY) {
+        float[] pointPosition = new float[4];
+        pointPosition[0] = (2.0f * posX) / camera.viewportWidth - 1.0f;
+        pointPosition[1] = (2.0f * posY) / camera.viewportHeight - 1.0f;
+        pointPosition[2] = -1.0f;
+        pointPosition[3] = 1.0f;
+
+        // get touch ray line matrix
+        float[] touchRay = multiplyMat4ByVec4(camera.inverseProjectionMatrix, pointPosition);
+        touchRay[2] = -1.0f;
+        touchRay[3] = 0.0f;
+
+        return multiplyMat4ByVec4(camera.inverseViewMatrix, touchRay);
+    }
+
+
+    private float[] rotatePoint(float[] pointV4, float xAngle, float yAngle) {
+//        float cosX = (float) Math.cos(xAngle);
+//        float sinX = (float) Math.sin(xAngle);
+        float cosY = (float) Math.cos(yAngle);
+        float sinY = (float) Math.sin(yAngle);
+
+        float[] rotationMatrixY = {1, 0, 0, 0,
+                0, cosY, -sinY, 0,
+                0, sinY, cosY, 0,
+                0, 0, 0, 1};
+//        float[] rotationMatrix = {cos, -sin, 0, 0,
+//                                  sin, cos, 0, 0,
+//                                  0, 0, 1, 0,
+//                                  0, 0, 0, 1};
+//        float[] rotationMatrixX = {cosX, 0, sinX, 0,
+//                                   0, 1, 0, 0,
+//                                   -sinX, 0, cosX, 0,
+//                                   0, 0, 0, 1};
+//        Log.d("CALC", String.valueOf(pointV4[0]) + " " + String.valueOf(pointV4[1]) + " " + String.valueOf(pointV4[2]));
+//        float[] rotatedPointY = multiplyMat4ByVec4(rotationMatrixY, pointV4);
+//        Log.d("CALC", String.valueOf(rotatedPointY[0]) + " " + String.valueOf(rotatedPointY[1]) + " " + String.valueOf(rotatedPointY[2]));
+//        float[] rotatedPointXY = multiplyMat4ByVec4(rotationMatrixX, rotatedPointY);
+//        Log.d("CALC", String.valueOf(rotatedPointXY[0]) + " " + String.valueOf(rotatedPointXY[1]) + " " + String.valueOf(rotatedPointXY[2]));
+
+        return multiplyMat4ByVec4(rotationMatrixY, pointV4);
+    }
+
+
+    private float[] multiplyMat4ByVec4(float[] matrix4, float[] vector4) {
+        float[] returnMatrix = new float[4];
+        returnMatrix[0] = (matrix4[0] * vector4[0]) + (matrix4[1] * vector4[1]) + (matrix4[2] * vector4[2]) + (matrix4[3] * vector4[3]);
+        returnMatrix[1] = (matrix4[4] * vector4[0]) + (matrix4[5] * vector4[1]) + (matrix4[6] * vector4[2]) + (matrix4[7] * vector4[3]);
+        returnMatrix[2] = (matrix4[8] * vector4[0]) + (matrix4[9] * vector4[1]) + (matrix4[10] * vector4[2]) + (matrix4[11] * vector4[3]);
+        returnMatrix[3] = (matrix4[12] * vector4[0]) + (matrix4[13] * vector4[1]) + (matrix4[14] * vector4[2]) + (matrix4[15] * vector4[3]);
+        return returnMatrix;
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.world3d;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+import java.util.Arrays;
+
+/**
+ * All glyphs a set of labels needs, rendered once into one texture. Glyphs are white with a dark
+ * halo, so labels stay readable on any part of the map. Metrics are in pixels with y growing down,
+ * relative to the pen position on the baseline. */
+public class GlyphAtlas {
+
+    /** Empty pixels around every glyph, so the halo and linear sampling never reach a neighbour. */
+    private static final int PADDING = 2;
+    private static final int MAX_WIDTH = 1024;
+
+    /** Atlas size in pixels. */
+    public final int width;
+    public final int height;
+    /** Distance from the top of a line to its baseline, and from one baseline to the next. */
+    public final float ascent;
+    public final float lineHeight;
+    /** Rendered glyphs, null for atlases built from metrics only. */
+    public final Bitmap bitmap;
+
+    /** Characters in the atlas, sorted. */
+    private final char[] mChars;
+    /** Pen advance per glyph. */
+    private final float[] mAdvances;
+    /** left, top, right, bottom of the quad per glyph, relative to the pen position. */
+    private final float[] mQuads;
+    /** u0, v0, u1, v1 per glyph. */
+    private final float[] mTexCoords;
+
+    /** Atlas of known metrics, used as is by create() and by tests without a Canvas. */
+    GlyphAtlas(int width, int height, float ascent, float lineHeight, Bitmap bitmap, char[] chars,
+               float[] advances, float[] quads, float[] texCoords) {
+        this.width = width;
+        this.height = height;
+        this.ascent = ascent;
+        this.lineHeight = lineHeight;
+        this.bitmap = bitmap;
+        mChars = chars;
+        mAdvances = advances;
+        mQuads = quads;
+        mTexCoords = texCoords;
+    }
+
+    /**
+     * Renders every character of some texts into a new atlas.
+     * @param texts Texts the atlas has to cover, duplicates cost nothing.
+     * @param textSize Text size in pixels. */
+    public static GlyphAtlas create(String[] texts, float textSize) {
+        char[] chars = distinctChars(texts);
+
+        Paint fill = new Paint();
+        fill.setAntiAlias(true);
+        fill.setTextSize(textSize);
+        fill.setColor(Color.WHITE);
+        Paint halo = new Paint(fill);
+        halo.setStyle(Paint.Style.STROKE);
+        halo.setStrokeWidth(Math.max(1f, textSize / 8));
+        halo.setColor(Color.BLACK);
+
+        Paint.FontMetrics metrics = fill.getFontMetrics();
+        float ascent = -metrics.ascent;
+        float lineHeight = metrics.descent - metrics.ascent;
+        int cellHeight = (int) Math.ceil(lineHeight) + 2 * PADDING;
+
+        // Pack glyphs into rows of a fixed height.
+        float[] advances = new float[chars.length];
+        int[] cellX = new int[chars.length];
+        int[] cellY = new int[chars.length];
+        int[] cellWidths = new int[chars.length];
+        int x = 0;
+        int y = 0;
+        char[] one = new char[1];
+        for (int i = 0; i < chars.length; i++) {
+            one[0] = chars[i];
+            advances[i] = fill.measureText(one, 0, 1);
+            cellWidths[i] = (int) Math.ceil(advances[i]) + 2 * PADDING;
+            if (x + cellWidths[i] > MAX_WIDTH) {
+                x = 0;
+                y += cellHeight;
+            }
+            cellX[i] = x;
+            cellY[i] = y;
+            x += cellWidths[i];
+        }
+        int width = (y == 0) ? nextPowerOfTwo(x) : MAX_WIDTH;
+        int height = nextPowerOfTwo(y + cellHeight);
+
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        float[] quads = new float[chars.length * 4];
+        float[] texCoords = new float[chars.length * 4];
+        for (int i = 0; i < chars.length; i++) {
+            one[0] = chars[i];
+            float penX = cellX[i] + PADDING;
+            float baseline = cellY[i] + PADDING + ascent;
+            canvas.drawText(one, 0, 1, penX, baseline, halo);
+            canvas.drawText(one, 0, 1, penX, baseline, fill);
+
+            // The whole cell is drawn, padding included, so halos aren't cut off.
+            quads[i * 4] = -PADDING;
+            quads[i * 4 + 1] = -PADDING - ascent;
+            quads[i * 4 + 2] = cellWidths[i] - PADDING;
+            quads[i * 4 + 3] = cellHeight - PADDING - ascent;
+            texCoords[i * 4] = (float) cellX[i] / width;
+            texCoords[i * 4 + 1] = (float) cellY[i] / height;
+            texCoords[i * 4 + 2] = (float) (cellX[i] + cellWidths[i]) / width;
+            texCoords[i * 4 + 3] = (float) (cellY[i] + cellHeight) / height;
+        }
+
+        return new GlyphAtlas(width, height, ascent, lineHeight, bitmap, chars, advances, quads, texCoords);
+    }
+
+    /**
+     * Returns the glyph of a character.
+     * @return Glyph index, or -1 if the atlas doesn't have it. */
+    public int glyphOf(char c) {
+        int index = Arrays.binarySearch(mChars, c);
+        return (index >= 0) ? index : -1;
+    }
+
+    public float getAdvance(int glyph) {
+        return mAdvances[glyph];
+    }
+
+    /** Copies left, top, right, bottom of the glyph quad. */
+    public void getQuad(int glyph, float[] quad) {
+        System.arraycopy(mQuads, glyph * 4, quad, 0, 4);
+    }
+
+    /** Copies u0, v0, u1, v1 of the glyph. */
+    public void getTexCoords(int glyph, float[] texCoords) {
+        System.arraycopy(mTexCoords, glyph * 4, texCoords, 0, 4);
+    }
+
+    static char[] distinctChars(String[] texts) {
+        StringBuilder all = new StringBuilder();
+        for (String text : texts) {
+            all.append(text);
+        }
+        char[] chars = all.toString().toCharArray();
+        Arrays.sort(chars);
+        int count = 0;
+        for (int i = 0; i < chars.length; i++) {
+            if (i == 0 || chars[i] != chars[i - 1]) {
+                chars[count++] = chars[i];
+            }
+        }
+        return Arrays.copyOf(chars, count);
+    }
+
+    private static int nextPowerOfTwo(int value) {
+        int power = 1;
+        while (power < value) {
+            power <<= 1;
+        }
+        return power;
+    }
+}
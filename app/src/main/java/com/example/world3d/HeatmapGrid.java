@@ -0,0 +1,273 @@
+package com.example.world3d;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Bins weighted (lat, lon) samples into an equirectangular grid laid out like the map texture.
+ * Binning runs in parallel and needs no per-thread grids: samples are first sorted into bands of
+ * rows, then each band is added to the grid by a single task, so no two threads write the same cell.
+ * Memory grows with the samples of one call, not with the number of threads. Weights are stored as fixed point, so removing samples that were added
+ * before restores the grid exactly. */
+public class HeatmapGrid {
+
+    /** Fixed point scale of the stored weights. A cell holds up to about 8 million weight units. */
+    public static final int WEIGHT_SCALE = 256;
+
+    /** Samples binned by one task. */
+    private static final int POINTS_PER_TASK = 16384;
+    /** Grid rows colorized by one task. */
+    private static final int ROWS_PER_TASK = 16;
+    /** Bands of rows the grid is split into for binning, each one added to by a single task. */
+    private static final int BANDS = 32;
+
+    public final int width;
+    public final int height;
+
+    private final int[] mCells;
+    private final ForkJoinPool mPool;
+    /** Cells in one band, the last band may be shorter. */
+    private final int mCellsPerBand;
+
+    /** Samples of the current bin() call sorted by band: cell index and fixed point weight. Grown as needed. */
+    private int[] mBandCells = new int[0];
+    private int[] mBandValues = new int[0];
+    /** Per point task and band, first the number of samples, then where the next one is written. */
+    private int[] mTaskBands = new int[0];
+    /** Start of each band in mBandCells, followed by the end of the last band. */
+    private final int[] mBandStarts = new int[BANDS + 1];
+
+    /** 256 premultiplied RGBA colors, from transparent through blue, green and yellow to red. */
+    private static final int[] palette = new int[256];
+
+    static {
+        final float[][] keys = {
+                {0f, 0f, 0f, 0f},
+                {0f, 0f, 1f, 0.5f},
+                {0f, 1f, 1f, 0.65f},
+                {0f, 1f, 0f, 0.75f},
+                {1f, 1f, 0f, 0.85f},
+                {1f, 0f, 0f, 0.9f}};
+        for (int i = 0; i < palette.length; i++) {
+            float t = i / 255f * (keys.length - 1);
+            int k = Math.min((int) t, keys.length - 2);
+            float f = t - k;
+            float a = keys[k][3] + (keys[k + 1][3] - keys[k][3]) * f;
+            int[] rgba = new int[4];
+            for (int c = 0; c < 3; c++) {
+                rgba[c] = Math.round((keys[k][c] + (keys[k + 1][c] - keys[k][c]) * f) * a * 255);
+            }
+            rgba[3] = Math.round(a * 255);
+            palette[i] = rgba[0] << 24 | rgba[1] << 16 | rgba[2] << 8 | rgba[3];
+        }
+    }
+
+    /**
+     * @param width Grid width, should match the overlay width (pWidth).
+     * @param height Grid height, should match the overlay height (pHeight).
+     * @param parallelism Number of worker threads. */
+    public HeatmapGrid(int width, int height, int parallelism) {
+        this.width = width;
+        this.height = height;
+        mCells = new int[width * height];
+        mPool = new ForkJoinPool(parallelism);
+        mCellsPerBand = (height + BANDS - 1) / BANDS * width;
+    }
+
+    /**
+     * Adds samples to the grid.
+     * @param lat Latitudes in degrees, north positive.
+     * @param lon Longitudes in degrees, east positive.
+     * @param weight Sample weights.
+     * @param count Number of samples to take from the arrays. */
+    public void add(float[] lat, float[] lon, float[] weight, int count) {
+        bin(lat, lon, weight, count, 1);
+    }
+
+    /**
+     * Removes samples that were added before. Takes the same arguments as add(). */
+    public void remove(float[] lat, float[] lon, float[] weight, int count) {
+        bin(lat, lon, weight, count, -1);
+    }
+
+    /**
+     * Returns a cell value in weight units. */
+    public float getCell(int x, int y) {
+        return mCells[y * width + x] / (float) WEIGHT_SCALE;
+    }
+
+    /**
+     * Returns the index of the cell a sample falls into, using the same mapping as the map texture. */
+    public int cellIndex(float lat, float lon) {
+        int x = (int) ((lon + 180f) / 360f * width);
+        int y = (int) ((90f - lat) / 180f * height);
+        x = ((x % width) + width) % width;
+        y = Math.min(height - 1, Math.max(0, y));
+        return y * width + x;
+    }
+
+    private synchronized void bin(float[] lat, float[] lon, float[] weight, int count, int sign) {
+        int tasks = (count + POINTS_PER_TASK - 1) / POINTS_PER_TASK;
+        if (mTaskBands.length < tasks * BANDS) {
+            mTaskBands = new int[tasks * BANDS];
+        } else {
+            Arrays.fill(mTaskBands, 0, tasks * BANDS, 0);
+        }
+        if (mBandCells.length < count) {
+            mBandCells = new int[count];
+            mBandValues = new int[count];
+        }
+
+        // Count the samples every task has in every band, turn the counts into write positions, band
+        // by band, then let every task write its samples to its positions.
+        mPool.invoke(new PointTask(lat, lon, weight, count, sign, false, 0, tasks));
+        int position = 0;
+        for (int band = 0; band < BANDS; band++) {
+            mBandStarts[band] = position;
+            for (int task = 0; task < tasks; task++) {
+                int samples = mTaskBands[task * BANDS + band];
+                mTaskBands[task * BANDS + band] = position;
+                position += samples;
+            }
+        }
+        mBandStarts[BANDS] = position;
+        mPool.invoke(new PointTask(lat, lon, weight, count, sign, true, 0, tasks));
+        mPool.invoke(new BandTask(0, BANDS));
+    }
+
+    /**
+     * Colorizes the grid into RGBA pixels, normalized by the highest cell with a square root curve
+     * so sparse areas stay visible. Pixels are premultiplied by alpha.
+     * @param rgba Big endian destination of width * height * 4 bytes, written with absolute puts. */
+    public synchronized void colorize(ByteBuffer rgba) {
+        int max = mPool.invoke(new MaxTask(0, height));
+        mPool.invoke(new ColorTask(rgba, Math.max(1, max), 0, height));
+    }
+
+    /** Counts or sorts the samples of a range of point tasks, each POINTS_PER_TASK samples long. */
+    private class PointTask extends RecursiveAction {
+        private final float[] lat, lon, weight;
+        private final int count, sign;
+        private final boolean write;
+        private final int fromTask, toTask;
+
+        PointTask(float[] lat, float[] lon, float[] weight, int count, int sign, boolean write,
+                int fromTask, int toTask) {
+            this.lat = lat;
+            this.lon = lon;
+            this.weight = weight;
+            this.count = count;
+            this.sign = sign;
+            this.write = write;
+            this.fromTask = fromTask;
+            this.toTask = toTask;
+        }
+
+        @Override
+        protected void compute() {
+            if (toTask - fromTask > 1) {
+                int middle = (fromTask + toTask) >>> 1;
+                invokeAll(new PointTask(lat, lon, weight, count, sign, write, fromTask, middle),
+                        new PointTask(lat, lon, weight, count, sign, write, middle, toTask));
+                return;
+            }
+            int bands = fromTask * BANDS;
+            int to = Math.min(count, toTask * POINTS_PER_TASK);
+            for (int i = fromTask * POINTS_PER_TASK; i < to; i++) {
+                int index = cellIndex(lat[i], lon[i]);
+                int band = bands + index / mCellsPerBand;
+                if (write) {
+                    int position = mTaskBands[band]++;
+                    mBandCells[position] = index;
+                    mBandValues[position] = sign * Math.round(weight[i] * WEIGHT_SCALE);
+                } else {
+                    mTaskBands[band]++;
+                }
+            }
+        }
+    }
+
+    /** Adds the sorted samples of a range of bands to the grid. */
+    private class BandTask extends RecursiveAction {
+        private final int fromBand, toBand;
+
+        BandTask(int fromBand, int toBand) {
+            this.fromBand = fromBand;
+            this.toBand = toBand;
+        }
+
+        @Override
+        protected void compute() {
+            if (toBand - fromBand > 1) {
+                int middle = (fromBand + toBand) >>> 1;
+                invokeAll(new BandTask(fromBand, middle), new BandTask(middle, toBand));
+                return;
+            }
+            for (int i = mBandStarts[fromBand]; i < mBandStarts[toBand]; i++) {
+                mCells[mBandCells[i]] += mBandValues[i];
+            }
+        }
+    }
+
+    private class MaxTask extends RecursiveTask<Integer> {
+        private final int fromRow, toRow;
+
+        MaxTask(int fromRow, int toRow) {
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (toRow - fromRow > ROWS_PER_TASK) {
+                int middle = (fromRow + toRow) >>> 1;
+                MaxTask upper = new MaxTask(fromRow, middle);
+                upper.fork();
+                int lower = new MaxTask(middle, toRow).compute();
+                return Math.max(lower, upper.join());
+            }
+            int max = 0;
+            for (int i = fromRow * width; i < toRow * width; i++) {
+                max = Math.max(max, mCells[i]);
+            }
+            return max;
+        }
+    }
+
+    private class ColorTask extends RecursiveAction {
+        private final ByteBuffer rgba;
+        private final int max, fromRow, toRow;
+
+        ColorTask(ByteBuffer rgba, int max, int fromRow, int toRow) {
+            this.rgba = rgba;
+            this.max = max;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        @Override
+        protected void compute() {
+            if (toRow - fromRow > ROWS_PER_TASK) {
+                int middle = (fromRow + toRow) >>> 1;
+                invokeAll(new ColorTask(rgba, max, fromRow, middle), new ColorTask(rgba, max, middle, toRow));
+                return;
+            }
+            float scale = 1f / max;
+            for (int i = fromRow * width; i < toRow * width; i++) {
+                int cell = mCells[i];
+                int color = 0;
+                if (cell > 0) {
+                    color = palette[Math.min(255, 1 + (int) (Math.sqrt(cell * scale) * 254))];
+                }
+                rgba.putInt(i * 4, color);
+            }
+        }
+    }
+
+    public void release() {
+        mPool.shutdown();
+    }
+}
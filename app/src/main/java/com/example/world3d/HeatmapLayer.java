@@ -0,0 +1,62 @@
+package com.example.world3d;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Density layer drawn between the map and the overlay. Samples are added and removed on any
+ * background thread; each change bins the samples, colorizes the grid into a spare pixel buffer and
+ * publishes it for the GL thread to upload on its next frame. */
+public class HeatmapLayer {
+
+    public final HeatmapGrid grid;
+
+    /** Colorized frame waiting for upload. */
+    private final AtomicReference<ByteBuffer> mReady = new AtomicReference<>();
+    /** Buffer the GL thread is done with, reused for the next colorize. */
+    private final AtomicReference<ByteBuffer> mFree = new AtomicReference<>();
+
+    public HeatmapLayer(int width, int height) {
+        grid = new HeatmapGrid(width, height, Runtime.getRuntime().availableProcessors());
+    }
+
+    public synchronized void add(float[] lat, float[] lon, float[] weight, int count) {
+        grid.add(lat, lon, weight, count);
+        publish();
+    }
+
+    public synchronized void remove(float[] lat, float[] lon, float[] weight, int count) {
+        grid.remove(lat, lon, weight, count);
+        publish();
+    }
+
+    private void publish() {
+        ByteBuffer buffer = mFree.getAndSet(null);
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(grid.width * grid.height * 4);
+        }
+        grid.colorize(buffer);
+        ByteBuffer skipped = mReady.getAndSet(buffer);
+        if (skipped != null) {
+            // The GL thread never saw this one, keep it for the next change.
+            mFree.compareAndSet(null, skipped);
+        }
+    }
+
+    /**
+     * Returns the newest colorized frame as RGBA pixels, or null if nothing changed since the last
+     * call. GL thread only. */
+    public ByteBuffer takeFrame() {
+        return mReady.getAndSet(null);
+    }
+
+    /**
+     * Hands a frame returned by takeFrame() back once it is no longer needed for uploads. */
+    public void releaseFrame(ByteBuffer frame) {
+        mFree.compareAndSet(null, frame);
+    }
+
+    public void release() {
+        grid.release();
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.world3d;
+
+public class HeightTile {
+
+    /** Tile position in the terrain tile grid. */
+    public final int tileX;
+    public final int tileY;
+
+    /** Number of samples along each side. Border samples are shared with neighbouring tiles. */
+    public final int size;
+
+    /** Elevation samples in meters, stored row by row starting at the tile's top left corner. */
+    private final short[] heights;
+
+    /** Highest sample of the tile in meters. Used to bound ray marching during picking. */
+    public final int maxHeight;
+
+    /**
+     * Creates a tile from a square grid of elevation samples.
+     * @param tileX Column of the tile in the terrain tile grid.
+     * @param tileY Row of the tile in the terrain tile grid.
+     * @param size Number of samples along each side, at least 2.
+     * @param heights Elevation samples in meters, size * size values. */
+    public HeightTile(int tileX, int tileY, int size, short[] heights) {
+        if (size < 2 || heights.length != size * size) {
+            throw new IllegalArgumentException("Height tile needs size * size samples, size >= 2.");
+        }
+        this.tileX = tileX;
+        this.tileY = tileY;
+        this.size = size;
+        this.heights = heights;
+
+        int max = 0;
+        for (short height : heights) {
+            max = Math.max(max, height);
+        }
+        maxHeight = max;
+    }
+
+    /**
+     * Bilinearly samples the tile.
+     * @param s Horizontal position inside the tile, 0 - 1.
+     * @param t Vertical position inside the tile, 0 - 1.
+     * @return Elevation in meters. */
+    public float sample(float s, float t) {
+        float x = Math.min(1f, Math.max(0f, s)) * (size - 1);
+        float y = Math.min(1f, Math.max(0f, t)) * (size - 1);
+        int x0 = Math.min((int) x, size - 2);
+        int y0 = Math.min((int) y, size - 2);
+        float fx = x - x0;
+        float fy = y - y0;
+
+        int i = y0 * size + x0;
+        float top = heights[i] + (heights[i + 1] - heights[i]) * fx;
+        float bottom = heights[i + size] + (heights[i + size + 1] - heights[i + size]) * fx;
+        return top + (bottom - top) * fy;
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.world3d;
+
+import java.io.IOException;
+
+public interface HeightTileSource {
+
+    /**
+     * Loads one elevation tile. Called from the terrain worker thread, never from the GL thread.
+     * @param tileX Column of the tile, 0 - tilesX-1, growing with texture u.
+     * @param tileY Row of the tile, 0 - tilesY-1, growing with texture v (north to south).
+     * @return The loaded tile, or null if there is no elevation data for this area. */
+    HeightTile load(int tileX, int tileY) throws IOException;
+}
@@ -0,0 +1,36 @@
+package com.example.world3d;
+
+/**
+ * What the UI thread wants the renderer to do, published to the GL thread through a TripleBuffer.
+ * Every field is the latest wanted value rather than a change, so the GL thread can skip any number
+ * of published intents and still end up in the right state. One-off requests carry a sequence
+ * number, which the GL thread compares with the last one it applied. */
+public class InputIntent {
+
+    /** Rotation speed to continue with, see CameraMotion.xMovement. */
+    public int movementSequence;
+    public float xMovement;
+    public float yMovement;
+
+    /** Zoom factor for GlobeCamera.scale. */
+    public float sizeCoef = 1;
+
+    /** Marker position on the overlay, in overlay pixels. */
+    public int markerSequence;
+    public float markerX;
+    public float markerY;
+
+    /** Region ID to highlight, 0 for none. */
+    public int highlightRegion;
+
+    public void copyFrom(InputIntent other) {
+        movementSequence = other.movementSequence;
+        xMovement = other.xMovement;
+        yMovement = other.yMovement;
+        sizeCoef = other.sizeCoef;
+        markerSequence = other.markerSequence;
+        markerX = other.markerX;
+        markerY = other.markerY;
+        highlightRegion = other.highlightRegion;
+    }
+}
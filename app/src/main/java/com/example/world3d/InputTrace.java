@@ -0,0 +1,303 @@
+package com.example.world3d;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compact binary recording of TouchSink calls, so a touch session can be replayed exactly, on a
+ * device or headlessly on the JVM. After a header, every call is one record: a type byte, the time
+ * as a zigzag varint delta to the previous timed record, and the coordinates as floats. Calls
+ * without a time of their own take the time of the record before them. */
+public class InputTrace {
+
+    /** "W3DI" */
+    private static final int MAGIC = 0x57334449;
+    private static final int VERSION = 1;
+
+    public static final int DOWN = 1;
+    public static final int POINTER_DOWN = 2;
+    public static final int MOVE = 3;
+    public static final int MOVE_END = 4;
+    public static final int POINTER_UP = 5;
+    public static final int UP = 6;
+    public static final int CANCEL = 7;
+
+    /**
+     * Records every call and passes it on. Recording errors don't interrupt input, they are
+     * reported by close(). */
+    public static class Writer implements TouchSink {
+        private final DataOutputStream mOut;
+        private final TouchSink mTarget;
+        private long mLastTime = 0;
+        private IOException mError;
+
+        /**
+         * @param out Stream to record to, closed by close().
+         * @param target Sink the calls are passed on to, or null to only record. */
+        public Writer(OutputStream out, TouchSink target) throws IOException {
+            mOut = new DataOutputStream(new BufferedOutputStream(out));
+            mTarget = target;
+            mOut.writeInt(MAGIC);
+            mOut.writeByte(VERSION);
+        }
+
+        @Override
+        public void onDown(long time, float x, float y) {
+            try {
+                writeHeader(DOWN, time);
+                mOut.writeFloat(x);
+                mOut.writeFloat(y);
+            } catch (IOException e) {
+                fail(e);
+            }
+            if (mTarget != null) {
+                mTarget.onDown(time, x, y);
+            }
+        }
+
+        @Override
+        public void onPointerDown(float x0, float y0, float x1, float y1) {
+            try {
+                writeType(POINTER_DOWN);
+                mOut.writeFloat(x0);
+                mOut.writeFloat(y0);
+                mOut.writeFloat(x1);
+                mOut.writeFloat(y1);
+            } catch (IOException e) {
+                fail(e);
+            }
+            if (mTarget != null) {
+                mTarget.onPointerDown(x0, y0, x1, y1);
+            }
+        }
+
+        @Override
+        public void onMove(long time, int pointers, float x0, float y0, float x1, float y1) {
+            try {
+                writeHeader(MOVE, time);
+                mOut.writeByte(pointers);
+                mOut.writeFloat(x0);
+                mOut.writeFloat(y0);
+                // The second finger is only meaningful with two or more fingers down.
+                if (pointers >= 2) {
+                    mOut.writeFloat(x1);
+                    mOut.writeFloat(y1);
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+            if (mTarget != null) {
+                mTarget.onMove(time, pointers, x0, y0, x1, y1);
+            }
+        }
+
+        @Override
+        public void onMoveEnd() {
+            try {
+                writeType(MOVE_END);
+            } catch (IOException e) {
+                fail(e);
+            }
+            if (mTarget != null) {
+                mTarget.onMoveEnd();
+            }
+        }
+
+        @Override
+        public void onPointerUp() {
+            try {
+                writeType(POINTER_UP);
+            } catch (IOException e) {
+                fail(e);
+            }
+            if (mTarget != null) {
+                mTarget.onPointerUp();
+            }
+        }
+
+        @Override
+        public void onUp(long time, float x, float y) {
+            try {
+                writeHeader(UP, time);
+                mOut.writeFloat(x);
+                mOut.writeFloat(y);
+            } catch (IOException e) {
+                fail(e);
+            }
+            if (mTarget != null) {
+                mTarget.onUp(time, x, y);
+            }
+        }
+
+        @Override
+        public void onCancel() {
+            try {
+                writeType(CANCEL);
+            } catch (IOException e) {
+                fail(e);
+            }
+            if (mTarget != null) {
+                mTarget.onCancel();
+            }
+        }
+
+        /** Finishes the trace. Throws the first error that occurred while recording, if any. */
+        public void close() throws IOException {
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                fail(e);
+            }
+            if (mError != null) {
+                throw mError;
+            }
+        }
+
+        private void writeType(int type) throws IOException {
+            if (mError != null) {
+                throw mError;
+            }
+            mOut.writeByte(type);
+        }
+
+        private void writeHeader(int type, long time) throws IOException {
+            writeType(type);
+            long delta = time - mLastTime;
+            mLastTime = time;
+            // Zigzag, so the rare step back in time stays short too.
+            long value = (delta << 1) ^ (delta >> 63);
+            while ((value & ~0x7FL) != 0) {
+                mOut.writeByte((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            mOut.writeByte((int) value);
+        }
+
+        private void fail(IOException e) {
+            if (mError == null) {
+                mError = e;
+            }
+        }
+    }
+
+    /**
+     * Reads a trace one record at a time. After next() returned true, the fields describe the record
+     * and dispatch() replays it. */
+    public static class Reader {
+        private final DataInputStream mIn;
+
+        public int type;
+        /** Time of this record, or of the last timed record for calls without a time. */
+        public long time;
+        public int pointers;
+        public float x0;
+        public float y0;
+        public float x1;
+        public float y1;
+
+        /** @param in Stream to read the trace from, closed by close(). */
+        public Reader(InputStream in) throws IOException {
+            mIn = new DataInputStream(new BufferedInputStream(in));
+            if (mIn.readInt() != MAGIC) {
+                throw new IOException("Not an input trace.");
+            }
+            int version = mIn.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported input trace version " + version);
+            }
+        }
+
+        /**
+         * Reads the next record.
+         * @return False at the end of the trace. */
+        public boolean next() throws IOException {
+            int value = mIn.read();
+            if (value < 0) {
+                return false;
+            }
+            type = value;
+            switch (type) {
+                case DOWN:
+                case UP:
+                    readTime();
+                    x0 = mIn.readFloat();
+                    y0 = mIn.readFloat();
+                    break;
+                case POINTER_DOWN:
+                    x0 = mIn.readFloat();
+                    y0 = mIn.readFloat();
+                    x1 = mIn.readFloat();
+                    y1 = mIn.readFloat();
+                    break;
+                case MOVE:
+                    readTime();
+                    pointers = mIn.readUnsignedByte();
+                    x0 = mIn.readFloat();
+                    y0 = mIn.readFloat();
+                    x1 = (pointers >= 2) ? mIn.readFloat() : 0;
+                    y1 = (pointers >= 2) ? mIn.readFloat() : 0;
+                    break;
+                case MOVE_END:
+                case POINTER_UP:
+                case CANCEL:
+                    break;
+                default:
+                    throw new IOException("Unexpected input trace record " + type);
+            }
+            return true;
+        }
+
+        /** Replays the current record. */
+        public void dispatch(TouchSink sink) {
+            switch (type) {
+                case DOWN:
+                    sink.onDown(time, x0, y0);
+                    break;
+                case POINTER_DOWN:
+                    sink.onPointerDown(x0, y0, x1, y1);
+                    break;
+                case MOVE:
+                    sink.onMove(time, pointers, x0, y0, x1, y1);
+                    break;
+                case MOVE_END:
+                    sink.onMoveEnd();
+                    break;
+                case POINTER_UP:
+                    sink.onPointerUp();
+                    break;
+                case UP:
+                    sink.onUp(time, x0, y0);
+                    break;
+                case CANCEL:
+                    sink.onCancel();
+                    break;
+                default:
+                    throw new IllegalStateException("No record read.");
+            }
+        }
+
+        public void close() throws IOException {
+            mIn.close();
+        }
+
+        private void readTime() throws IOException {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = mIn.readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+                if (shift > 63) {
+                    throw new IOException("Corrupted input trace time.");
+                }
+            }
+            time += (value >>> 1) ^ -(value & 1);
+        }
+    }
+}
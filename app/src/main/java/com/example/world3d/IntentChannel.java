@@ -0,0 +1,88 @@
+package com.example.world3d;
+
+/**
+ * Carries input intents from the UI thread to the GL thread and applies them to the camera. Posting
+ * never blocks: every post copies the latest intent into a TripleBuffer, and the GL thread applies the
+ * newest one once per frame. Shared by OpenGLRenderer and the headless TraceReplay, so replays go
+ * through the same intent handling as the device. */
+public class IntentChannel {
+
+    private final TripleBuffer<InputIntent> mIntents =
+            new TripleBuffer<>(new InputIntent(), new InputIntent(), new InputIntent());
+    /** Latest intent, written by the posting thread only and copied into the buffer on every post. */
+    private final InputIntent mPosted = new InputIntent();
+
+    // GL thread only
+    private int mAppliedMovementSequence = 0;
+    private int mAppliedMarkerSequence = 0;
+
+    /** Set by apply() when the intent asks for a new marker at markerX, markerY, in overlay pixels. */
+    public boolean markerRequested = false;
+    public float markerX;
+    public float markerY;
+    /** Region ID to highlight, 0 for none. */
+    public int highlightRegion = 0;
+
+    /**
+     * Asks the GL thread to continue rotating at the given speed. */
+    public void postMovement(float xMovement, float yMovement) {
+        mPosted.movementSequence++;
+        mPosted.xMovement = xMovement;
+        mPosted.yMovement = yMovement;
+        post();
+    }
+
+    /**
+     * Asks the GL thread to zoom. */
+    public void postZoom(float sizeCoef) {
+        mPosted.sizeCoef = sizeCoef;
+        post();
+    }
+
+    /**
+     * Asks the GL thread to move the marker on the overlay. */
+    public void postMarker(float x, float y) {
+        mPosted.markerSequence++;
+        mPosted.markerX = x;
+        mPosted.markerY = y;
+        post();
+    }
+
+    /**
+     * Asks the GL thread to highlight a region, 0 for none. */
+    public void postHighlight(int regionId) {
+        mPosted.highlightRegion = regionId;
+        post();
+    }
+
+    private void post() {
+        mIntents.getBack().copyFrom(mPosted);
+        mIntents.publish();
+    }
+
+    /**
+     * Applies the newest posted intent, if any: movement to the motion, zoom to the camera. Marker and
+     * highlight requests are left in the public fields for the caller. GL thread only.
+     * @return True if a new intent arrived since the last call. */
+    public boolean apply(CameraMotion motion, GlobeCamera camera) {
+        markerRequested = false;
+        if (!mIntents.update()) {
+            return false;
+        }
+        InputIntent intent = mIntents.getFront();
+        if (intent.movementSequence != mAppliedMovementSequence) {
+            mAppliedMovementSequence = intent.movementSequence;
+            motion.xMovement = intent.xMovement;
+            motion.yMovement = intent.yMovement;
+        }
+        camera.scale = intent.sizeCoef;
+        if (intent.markerSequence != mAppliedMarkerSequence) {
+            mAppliedMarkerSequence = intent.markerSequence;
+            markerRequested = true;
+            markerX = intent.markerX;
+            markerY = intent.markerY;
+        }
+        highlightRegion = intent.highlightRegion;
+        return true;
+    }
+}
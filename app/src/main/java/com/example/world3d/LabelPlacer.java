@@ -0,0 +1,316 @@
+package com.example.world3d;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Decides every frame which labels are shown and builds their glyph quads. Labels on the far side of
+ * the globe or off screen are culled, the rest are placed by importance into a screen-space grid and
+ * dropped where they would overlap a label placed before. Quads are written in normalized device
+ * coordinates, pixel aligned, so the label program draws them without any matrix. Plain Java, GL
+ * thread only. */
+public class LabelPlacer {
+
+    /** Size of the collision grid cells in pixels, about the height of two lines of text. */
+    private static final int CELL_SIZE = 64;
+    /** Glyph quads drawn per frame at most, labels beyond that are left out. */
+    public static final int MAX_GLYPHS = 8192;
+
+    /** Glyphs the quads sample. */
+    public final GlyphAtlas atlas;
+    public final int labelCount;
+    private final float mAscent;
+
+    /** x, y, z per label, on the sphere in model space. */
+    private final float[] mAnchors;
+    /** Width and height per label in pixels. */
+    private final float[] mSizes;
+    /** First glyph of every label, and the total glyph count at the end. */
+    private final int[] mGlyphStarts;
+    /** left, top, right, bottom relative to the label's pen start on the baseline, per glyph. */
+    private final float[] mGlyphQuads;
+    /** u0, v0, u1, v1 per glyph. */
+    private final float[] mGlyphTexCoords;
+
+    // Collision grid: a linked list of placed label rectangles per cell. Cells not stamped with the
+    // current frame are empty, so clearing the grid costs nothing.
+    private int mViewportWidth;
+    private int mViewportHeight;
+    private int mColumns;
+    private int mRows;
+    private int[] mCellHeads = new int[0];
+    private int[] mCellStamps = new int[0];
+    private int mStamp = 0;
+    private int[] mEntryNext = new int[256];
+    private int[] mEntryRects = new int[256];
+    private int mEntryCount;
+    private final float[] mRects;
+    private int mRectCount;
+
+    private final float[] mPositionData;
+    private final float[] mTexCoordData;
+    /** Quads of the labels placed by the last place(), x, y, z and u, v per vertex. */
+    public final FloatBuffer positions;
+    public final FloatBuffer textureCoordinates;
+    public int vertexCount = 0;
+    /** Changes with every place(). */
+    public int version = 0;
+
+    /** Counters of the last place(). */
+    public int placed;
+    public int culled;
+    public int collided;
+    public long placeNanos;
+
+    /**
+     * Lays out the labels with the glyphs of an atlas. Characters the atlas lacks are left out.
+     * @param names Label texts. Earlier labels win where labels overlap, so pass them by importance.
+     * @param latitudes Latitudes in degrees, north positive.
+     * @param longitudes Longitudes in degrees, east positive.
+     * @param radius Radius of the globe the labels are anchored to. */
+    public LabelPlacer(GlyphAtlas atlas, String[] names, float[] latitudes, float[] longitudes, float radius) {
+        this.atlas = atlas;
+        labelCount = names.length;
+        mAscent = atlas.ascent;
+        mAnchors = new float[labelCount * 3];
+        mSizes = new float[labelCount * 2];
+        mGlyphStarts = new int[labelCount + 1];
+        mRects = new float[labelCount * 4];
+
+        int glyphCount = 0;
+        for (String name : names) {
+            glyphCount += name.length();
+        }
+        float[] glyphQuads = new float[glyphCount * 4];
+        float[] glyphTexCoords = new float[glyphCount * 4];
+        float[] quad = new float[4];
+        float[] texCoords = new float[4];
+
+        glyphCount = 0;
+        for (int i = 0; i < labelCount; i++) {
+            // Same layout as the map texture, u = 0 at 180 degrees west and v = 0 at the north pole.
+            double u = (longitudes[i] + 180.0) / 360.0;
+            double v = (90.0 - latitudes[i]) / 180.0;
+            double phi = v * Math.PI;
+            double theta = (1 - u) * 2 * Math.PI;
+            mAnchors[i * 3] = (float) (radius * Math.sin(phi) * Math.cos(theta));
+            mAnchors[i * 3 + 1] = (float) (radius * Math.cos(phi));
+            mAnchors[i * 3 + 2] = (float) (radius * Math.sin(phi) * Math.sin(theta));
+
+            mGlyphStarts[i] = glyphCount;
+            float pen = 0;
+            for (int c = 0; c < names[i].length(); c++) {
+                char character = names[i].charAt(c);
+                int glyph = atlas.glyphOf(character);
+                if (glyph < 0) {
+                    continue;
+                }
+                if (!Character.isWhitespace(character)) {
+                    atlas.getQuad(glyph, quad);
+                    atlas.getTexCoords(glyph, texCoords);
+                    int g = glyphCount * 4;
+                    glyphQuads[g] = pen + quad[0];
+                    glyphQuads[g + 1] = quad[1];
+                    glyphQuads[g + 2] = pen + quad[2];
+                    glyphQuads[g + 3] = quad[3];
+                    System.arraycopy(texCoords, 0, glyphTexCoords, g, 4);
+                    glyphCount++;
+                }
+                pen += atlas.getAdvance(glyph);
+            }
+            mSizes[i * 2] = pen;
+            mSizes[i * 2 + 1] = atlas.lineHeight;
+        }
+        mGlyphStarts[labelCount] = glyphCount;
+        mGlyphQuads = glyphQuads;
+        mGlyphTexCoords = glyphTexCoords;
+
+        int vertices = Math.min(glyphCount, MAX_GLYPHS) * 6;
+        mPositionData = new float[vertices * 3];
+        mTexCoordData = new float[vertices * 2];
+        positions = ByteBuffer.allocateDirect(Math.max(1, vertices * 3 * 4))
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        textureCoordinates = ByteBuffer.allocateDirect(Math.max(1, vertices * 2 * 4))
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    /**
+     * Places the labels for a camera and rebuilds the quads.
+     * @param mvpMatrix Model/view/projection matrix the globe is drawn with, column major.
+     * @param eyeX Eye position in model space, for culling labels on the far side.
+     * @param viewportWidth Viewport size in pixels. */
+    public void place(float[] mvpMatrix, float eyeX, float eyeY, float eyeZ, int viewportWidth, int viewportHeight) {
+        long start = System.nanoTime();
+        clearGrid(viewportWidth, viewportHeight);
+        placed = 0;
+        culled = 0;
+        collided = 0;
+
+        final float[] m = mvpMatrix;
+        int vertices = 0;
+        for (int i = 0; i < labelCount; i++) {
+            float x = mAnchors[i * 3];
+            float y = mAnchors[i * 3 + 1];
+            float z = mAnchors[i * 3 + 2];
+
+            // The globe is centered at the origin, so the anchor is also the surface normal.
+            if (x * (eyeX - x) + y * (eyeY - y) + z * (eyeZ - z) <= 0) {
+                culled++;
+                continue;
+            }
+            float w = m[3] * x + m[7] * y + m[11] * z + m[15];
+            if (w <= 0) {
+                culled++;
+                continue;
+            }
+            float ndcX = (m[0] * x + m[4] * y + m[8] * z + m[12]) / w;
+            float ndcY = (m[1] * x + m[5] * y + m[9] * z + m[13]) / w;
+
+            // Centered on the anchor, snapped to whole pixels to keep glyphs sharp.
+            float width = mSizes[i * 2];
+            float height = mSizes[i * 2 + 1];
+            float left = Math.round((ndcX + 1) * 0.5f * viewportWidth - width * 0.5f);
+            float top = Math.round((1 - ndcY) * 0.5f * viewportHeight - height * 0.5f);
+            float right = left + width;
+            float bottom = top + height;
+            if (right <= 0 || bottom <= 0 || left >= viewportWidth || top >= viewportHeight) {
+                culled++;
+                continue;
+            }
+            if (overlaps(left, top, right, bottom)) {
+                collided++;
+                continue;
+            }
+            int glyphs = mGlyphStarts[i + 1] - mGlyphStarts[i];
+            if (vertices + glyphs * 6 > mTexCoordData.length / 2) {
+                break;
+            }
+            insert(left, top, right, bottom);
+            vertices = writeQuads(i, left, top + mAscent, vertices);
+            placed++;
+        }
+
+        positions.clear();
+        positions.put(mPositionData, 0, vertices * 3);
+        positions.position(0);
+        textureCoordinates.clear();
+        textureCoordinates.put(mTexCoordData, 0, vertices * 2);
+        textureCoordinates.position(0);
+        vertexCount = vertices;
+        version++;
+        placeNanos = System.nanoTime() - start;
+    }
+
+    /** Writes two triangles per glyph of a label, counter-clockwise on screen. */
+    private int writeQuads(int label, float penX, float baseline, int vertex) {
+        float scaleX = 2f / mViewportWidth;
+        float scaleY = 2f / mViewportHeight;
+        for (int g = mGlyphStarts[label]; g < mGlyphStarts[label + 1]; g++) {
+            float x0 = (penX + mGlyphQuads[g * 4]) * scaleX - 1;
+            float y0 = 1 - (baseline + mGlyphQuads[g * 4 + 1]) * scaleY;
+            float x1 = (penX + mGlyphQuads[g * 4 + 2]) * scaleX - 1;
+            float y1 = 1 - (baseline + mGlyphQuads[g * 4 + 3]) * scaleY;
+            float u0 = mGlyphTexCoords[g * 4];
+            float v0 = mGlyphTexCoords[g * 4 + 1];
+            float u1 = mGlyphTexCoords[g * 4 + 2];
+            float v1 = mGlyphTexCoords[g * 4 + 3];
+            // y0 is the top edge, bitmap rows run down from v0.
+            vertex = writeVertex(vertex, x0, y1, u0, v1);
+            vertex = writeVertex(vertex, x1, y1, u1, v1);
+            vertex = writeVertex(vertex, x1, y0, u1, v0);
+            vertex = writeVertex(vertex, x0, y1, u0, v1);
+            vertex = writeVertex(vertex, x1, y0, u1, v0);
+            vertex = writeVertex(vertex, x0, y0, u0, v0);
+        }
+        return vertex;
+    }
+
+    private int writeVertex(int vertex, float x, float y, float u, float v) {
+        // Labels are drawn over everything, the far side of the globe is culled instead.
+        mPositionData[vertex * 3] = x;
+        mPositionData[vertex * 3 + 1] = y;
+        mPositionData[vertex * 3 + 2] = -1f;
+        mTexCoordData[vertex * 2] = u;
+        mTexCoordData[vertex * 2 + 1] = v;
+        return vertex + 1;
+    }
+
+    private void clearGrid(int viewportWidth, int viewportHeight) {
+        if (viewportWidth != mViewportWidth || viewportHeight != mViewportHeight) {
+            mViewportWidth = viewportWidth;
+            mViewportHeight = viewportHeight;
+            mColumns = Math.max(1, (viewportWidth + CELL_SIZE - 1) / CELL_SIZE);
+            mRows = Math.max(1, (viewportHeight + CELL_SIZE - 1) / CELL_SIZE);
+            mCellHeads = new int[mColumns * mRows];
+            mCellStamps = new int[mColumns * mRows];
+            mStamp = 0;
+        }
+        if (++mStamp == Integer.MAX_VALUE) {
+            Arrays.fill(mCellStamps, 0);
+            mStamp = 1;
+        }
+        mEntryCount = 0;
+        mRectCount = 0;
+    }
+
+    private boolean overlaps(float left, float top, float right, float bottom) {
+        int column0 = cellColumn(left);
+        int column1 = cellColumn(right - 1);
+        int row0 = cellRow(top);
+        int row1 = cellRow(bottom - 1);
+        for (int row = row0; row <= row1; row++) {
+            for (int column = column0; column <= column1; column++) {
+                int cell = row * mColumns + column;
+                if (mCellStamps[cell] != mStamp) {
+                    continue;
+                }
+                for (int entry = mCellHeads[cell]; entry >= 0; entry = mEntryNext[entry]) {
+                    int r = mEntryRects[entry] * 4;
+                    if (left < mRects[r + 2] && right > mRects[r] && top < mRects[r + 3] && bottom > mRects[r + 1]) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private void insert(float left, float top, float right, float bottom) {
+        int rect = mRectCount++;
+        mRects[rect * 4] = left;
+        mRects[rect * 4 + 1] = top;
+        mRects[rect * 4 + 2] = right;
+        mRects[rect * 4 + 3] = bottom;
+
+        int column0 = cellColumn(left);
+        int column1 = cellColumn(right - 1);
+        int row0 = cellRow(top);
+        int row1 = cellRow(bottom - 1);
+        for (int row = row0; row <= row1; row++) {
+            for (int column = column0; column <= column1; column++) {
+                int cell = row * mColumns + column;
+                if (mCellStamps[cell] != mStamp) {
+                    mCellStamps[cell] = mStamp;
+                    mCellHeads[cell] = -1;
+                }
+                if (mEntryCount == mEntryNext.length) {
+                    mEntryNext = Arrays.copyOf(mEntryNext, mEntryCount * 2);
+                    mEntryRects = Arrays.copyOf(mEntryRects, mEntryCount * 2);
+                }
+                mEntryRects[mEntryCount] = rect;
+                mEntryNext[mEntryCount] = mCellHeads[cell];
+                mCellHeads[cell] = mEntryCount++;
+            }
+        }
+    }
+
+    private int cellColumn(float x) {
+        return Math.min(mColumns - 1, Math.max(0, (int) x / CELL_SIZE));
+    }
+
+    private int cellRow(float y) {
+        return Math.min(mRows - 1, Math.max(0, (int) y / CELL_SIZE));
+    }
+}
@@ -1,23 +1,26 @@
 package com.example.world3d;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Rect;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.opengl.GLUtils;
 import android.opengl.Matrix;
 import android.util.Log;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
-public class OpenGLRenderer implements GLSurfaceView.Renderer {
+public class OpenGLRenderer implements GLSurfaceView.Renderer, RenderQueue.Executor, OverlayPlayback.Uploader {
 
     // Use this to show variable in bottom textView:
     // MainActivity.getInstance().setText(String.valueOf(variable));
@@ -25,29 +28,30 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer {
 
     /** Used for debug logs. */
     private static final String TAG = "Renderer";
-
+    /** Frames between two render statistics logs. */
+    private static final int STATS_INTERVAL = 300;
+    /** Texture uploads bind here, so they never disturb the bindings RenderQueue keeps track of. */
+    private static final int UPLOAD_TEXTURE_UNIT = 7;
+    /** Frame time the quality governor holds, 60 fps. */
+    private static final float TARGET_FRAME_MILLIS = 16.6f;
     /**
-     * Store the model matrix. This matrix is used to move models from object space (where each model can be thought
-     * of being located at the center of the universe) to world space. */
-    public float[] mModelMatrix = new float[16];
+     * Samples the map from six cube faces made offline by CubemapConverter instead of the
+     * equirectangular map. Same memory, but texels are spread evenly instead of crowding the poles.
+     * GlobeSnapshot follows it, so headless snapshots sample the same map the same way. */
+    static final boolean USE_CUBEMAP = true;
+    /** Cube map faces in the order of GL_TEXTURE_CUBE_MAP_POSITIVE_X and the faces following it. */
+    private static final int[] CUBEMAP_FACES = {R.drawable.map_world_px, R.drawable.map_world_nx,
+            R.drawable.map_world_py, R.drawable.map_world_ny, R.drawable.map_world_pz, R.drawable.map_world_nz};
 
     /**
-     * Store the view matrix. This can be thought of as our camera. This matrix transforms world space to eye space;
-     * it positions things relative to our eye. */
-    private float[] mViewMatrix = new float[16];
-    /** Store the inverse of view matrix. This is used for pointer ray calculations. */
-    public float[] mInverseViewMatrix = new float[16];
-    /** Store the projection matrix. This is used to project the scene onto a 2D viewport. */
-    private float[] mProjectionMatrix = new float[16];
-    /** Store the inverse of projection matrix. This is used for pointer ray calculations. */
-    public float[] mInverseProjectionMatrix = new float[16];
-    /** Allocate storage for the final combined matrix. This will be passed into the shader program. */
-    private float[] mMVPMatrix = new float[16];
+     * Model, view and projection matrices of the current frame. Shared with the headless snapshots and
+     * trace replays, so they see the same camera as the device. GL thread only. */
+    private final GlobeCamera mGlobeCamera = new GlobeCamera();
 
-    /** Store our model data in a float buffer. */
-    public final FloatBuffer mObjectPositions;
-    public final FloatBuffer mObjectColors;
-    public final FloatBuffer mObjectTextures;
+    /** Store our model data in a float buffer. Replaced when the quality governor changes tessellation. */
+    public FloatBuffer mObjectPositions;
+    public FloatBuffer mObjectColors;
+    public FloatBuffer mObjectTextures;
 
     /** This will be used to pass in the transformation matrix. */
     private int mMVPMatrixHandle;
@@ -60,18 +64,98 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer {
 
     /** These will be used to hold object textures */
     public Canvas Overlay;
-    public Canvas Result;
     public Paint paint;
-    public static Bitmap bitmap;
     public static Bitmap overlay;
-    public static Bitmap bitmapSum;
+    /** Set when the overlay bitmap changed and has to be uploaded again. */
+    private volatile boolean mOverlayDirty = true;
+    /** Overlay bitmap size relative to pWidth and pHeight, lowered by the quality governor. */
+    private float mOverlayScale = 1f;
+    /** Last marker in pWidth by pHeight coordinates, redrawn when the overlay is resized. */
+    private boolean mHasMarker = false;
+    private float mMarkerX;
+    private float mMarkerY;
+
+    /**
+     * Decoded map kept in app storage, so starts and context restores skip the PNG decode. Either the
+     * equirectangular map or the six cube faces. */
+    private final TextureCache[] mMapCaches;
+    /** Used to log the time from renderer creation to the first frame. */
+    private final long mCreatedTime = System.nanoTime();
+    private boolean mFirstFrameDrawn = false;
 
     /** This will be used to pass in the texture. */
     private int mTextureUniformHandle;
+    /** This will be used to pass in the overlay texture. */
+    private int mOverlayUniformHandle;
     /** This will be used to pass in model texture coordinate information. */
     private int mTextureCoordinateHandle;
-    /** This is a handle to our texture data. */
+    /** This is a handle to our texture data, 0 while the map comes from the cube map. */
     private static int mTextureDataHandle;
+    /** This will be used to pass in the cube map. */
+    private int mCubemapUniformHandle;
+    /** This is a handle to our cube map data, 0 while the map comes from the equirectangular texture. */
+    private static int mCubemapDataHandle;
+    /** This is a handle to our overlay texture data. */
+    private static int mOverlayDataHandle;
+    /** This will be used to pass in the heatmap texture. */
+    private int mHeatmapUniformHandle;
+    /** This is a handle to our heatmap texture data. */
+    private static int mHeatmapDataHandle;
+
+    /** Optional density layer drawn between the map and the overlay. GL thread only. */
+    private HeatmapLayer mHeatmap;
+    /** Layer created by enableHeatmap() and not yet swapped in by the GL thread. */
+    private final AtomicReference<HeatmapLayer> mNewHeatmap = new AtomicReference<>();
+    /** Last frame of mHeatmap uploaded, kept to restore the texture after a context loss. */
+    private ByteBuffer mHeatmapFrame;
+
+    /** This will be used to pass in the region ID texture. */
+    private int mRegionUniformHandle;
+    /** This will be used to pass in the highlighted region ID. */
+    private int mHighlightUniformHandle;
+    /** This is a handle to our region ID texture data. */
+    private static int mRegionDataHandle;
+    /** Optional region lookup for taps, its IDs are also sampled by the shader for highlighting. */
+    public volatile RegionRaster regions;
+    /** Set when regions changed and have to be uploaded again. */
+    private volatile boolean mRegionsDirty = false;
+    /** Region drawn highlighted, 0 for none. GL thread only. */
+    private int mHighlightRegion = 0;
+
+    /** These will be used to pass in the two time-series frames and the weight of the second. */
+    private int mFrameAUniformHandle;
+    private int mFrameBUniformHandle;
+    private int mFrameBlendUniformHandle;
+    /** Optional time-series overlay, such as weather, played over the map. */
+    public volatile OverlayPlayback playback;
+    /** Playback the ring textures were last filled for. GL thread only. */
+    private OverlayPlayback mUploadedPlayback;
+    /** These are handles to the playback texture ring. */
+    private final int[] mPlaybackTextureHandles = new int[OverlayPlayback.RING_SIZE];
+    /** Ring textures that have storage of the playback frame size, later uploads only replace texels. */
+    private final boolean[] mPlaybackTextureAllocated = new boolean[OverlayPlayback.RING_SIZE];
+    /** This is a handle to a transparent texel, bound instead of frames while nothing plays. */
+    private static int mEmptyTextureDataHandle;
+    /** Changes whenever globe commands have to bind other textures or draw other geometry. */
+    private int mGlobeVersion = 0;
+
+    /** This is a handle to the label program. */
+    private int mLabelProgramHandle;
+    /** This will be used to pass in the glyph atlas. */
+    private int mLabelAtlasUniformHandle;
+    /** This is a handle to our glyph atlas texture data. */
+    private static int mLabelAtlasDataHandle;
+    /** Optional place-name labels, set with setLabels(). */
+    public volatile LabelPlacer labels;
+    /**
+     * Labels, camera and viewport of the last placement, labels are only placed again when one changed.
+     * The atlas texture always holds the glyphs of mPlacedLabels. */
+    private LabelPlacer mPlacedLabels;
+    private final float[] mPlacedLabelMatrix = new float[16];
+    private int mPlacedViewportWidth;
+    private int mPlacedViewportHeight;
+    /** Changes with every placement. */
+    private int mLabelsVersion = 0;
 
     /** Size of the texture coordinate data in elements. */
     private final int mTextureDataSize = 2;
@@ -82,27 +166,58 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer {
     /** This is a handle to our per-vertex cube shading program. */
     private int mPerVertexProgramHandle;
 
-    public float xAngle = -70; // X -70 and Y -16 centers initial rotation above Mediterranean
-    public float yAngle = -16;
+    /** Rotation and momentum. GL thread only, the UI thread posts intents instead. */
+    public final CameraMotion motion = new CameraMotion();
     public float radius = 2f;
     public int sphereStep = 16;
-    public float xMovement = 0;
-    public float yMovement = 0;
     public int viewportHeight;
     public int viewportWidth;
     public int pWidth = 1920;
     public int pHeight = 960;
 
-    // Position the eye in front of the origin.
-    public final float[] eye = {0.0f, 0.0f, 5.0f};
-    // We are looking toward the distance
-    private final float[] look = {0.0f, 0.0f, -5.0f};
-    // Set our up vector. This is where our head would be pointing were we holding the camera.
-    private final float[] up = {0.0f, 1.0f, 0.0f};
-
     // Define the 3D object
     Sphere Object = new Sphere(radius, sphereStep);
 
+    /**
+     * Optional relief. When set, its chunks are drawn instead of the plain sphere. Written by the GL
+     * thread only, other threads may read it for picking. Use setTerrain() to change it. */
+    public volatile Terrain terrain;
+    /** Terrain asked for by setTerrain() and not yet swapped in by the GL thread. */
+    private final AtomicReference<TerrainRequest> mTerrainRequest = new AtomicReference<>();
+    /** Eye position transformed into model space, used for terrain detail selection. */
+    private final float[] mInverseModelMatrix = new float[16];
+    private final float[] mWorldEye = {0f, 0f, 0f, 1f};
+    private final float[] mModelEye = new float[4];
+
+    /** Input intents from the UI thread, picked up once per frame. */
+    public final IntentChannel intents = new IntentChannel();
+
+    /** Camera of the last frame for picking on the UI thread. */
+    public final TripleBuffer<CameraSnapshot> camera =
+            new TripleBuffer<>(new CameraSnapshot(), new CameraSnapshot(), new CameraSnapshot());
+
+    /** Everything drawn goes through here, sorted and batched. */
+    public final RenderQueue renderQueue = new RenderQueue();
+    /** Layers drawn after the frame reached the screen, at full resolution whatever the render scale. */
+    public final RenderQueue screenQueue = new RenderQueue();
+    private int mFrameCount = 0;
+
+    /** Lowers tessellation, overlay resolution and render scale when frames take too long. */
+    public final QualityGovernor governor = new QualityGovernor(TARGET_FRAME_MILLIS);
+    /** Start of the last frame, 0 when the next frame has no predecessor to be timed against. */
+    private volatile long mLastFrameStart = 0;
+    /** Offscreen target for rendering below full resolution, 0 while rendering straight to the screen. */
+    private int mFramebufferHandle = 0;
+    private int mFramebufferTextureHandle;
+    private int mDepthRenderbufferHandle;
+    private int mFramebufferWidth;
+    private int mFramebufferHeight;
+    /** Set when the offscreen target can't be created on this device, it is not tried again. */
+    private boolean mFramebufferFailed = false;
+    /** Screen filling quad the offscreen target is copied with, in normalized device coordinates. */
+    private final FloatBuffer mScreenPositions;
+    private final FloatBuffer mScreenTextures;
+
     OpenGLView mActivityContext;
 
     /** Initialize the model data. */
@@ -112,6 +227,27 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer {
         mObjectPositions = Object.objectVertex;
         mObjectColors = Object.objectColor;
         mObjectTextures = Object.objectTexture;
+        mScreenPositions = ByteBuffer.allocateDirect(6 * 3 * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        mScreenPositions.put(new float[] {-1, -1, 0,  1, -1, 0,  1, 1, 0,  -1, -1, 0,  1, 1, 0,  -1, 1, 0}).position(0);
+        mScreenTextures = ByteBuffer.allocateDirect(6 * 2 * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        mScreenTextures.put(new float[] {0, 0,  1, 0,  1, 1,  0, 0,  1, 1,  0, 1}).position(0);
+
+        // Overlay outlives GL contexts, so markers survive a context loss.
+        overlay = Bitmap.createBitmap(pWidth, pHeight, Bitmap.Config.ARGB_8888);
+        Overlay = new Canvas(overlay);
+        paint = new Paint();
+
+        // Decode the map while the GL thread is still setting up EGL.
+        int[] mapResources = USE_CUBEMAP ? CUBEMAP_FACES : new int[] {R.drawable.map_world};
+        mMapCaches = new TextureCache[mapResources.length];
+        for (int i = 0; i < mapResources.length; i++) {
+            mMapCaches[i] = new TextureCache(surfaceView.getContext(), mapResources[i]);
+            mMapCaches[i].prepareAsync();
+        }
+
+        renderQueue.addLayer(new SphereLayer());
+        renderQueue.addLayer(new TerrainLayer());
+        screenQueue.addLayer(new LabelLayer());
     }
 
     protected String getVertexShader() {
@@ -122,12 +258,14 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer {
                         + "attribute vec4 a_Color;        \n"	// Per-vertex color information we will pass in.
                         + "attribute vec2 a_TexCoordinate;\n"
                         + "varying vec2 v_TexCoordinate;  \n"
+                        + "varying vec3 v_Normal;         \n"	// Direction from the globe center, looks up the cube map.
                         + "varying vec4 v_Color;          \n"	// This will be passed into the fragment shader.
                         + "void main()                    \n" 	// The entry point for our vertex shader.
                         + "{                              \n"   // Transform the vertex into eye space.
                         + "   vec3 modelViewVertex = vec3(u_MVMatrix * a_Position);\n"    // Multiply the color by the illumination level. It will be interpolated across the triangle.
                         + "   v_Color = a_Color;\n"             // Pass the color through to the fragment shader.
                         +"v_TexCoordinate = a_TexCoordinate;\n"
+                        + "   v_Normal = a_Position.xyz;  \n"
                         + "   gl_Position = u_MVPMatrix   \n" 	// gl_Position is a special variable used to store the final position.
                         + "               * a_Position;   \n"   // Multiply the vertex by the matrix to get the final point in
                         + "}\n";                                // normalized screen coordinates.
@@ -136,13 +274,67 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer {
 
     protected String getFragmentShader() {
         final String fragmentShader =
-                "precision mediump float;         \n"		// Set the default precision to medium. We don't need as high of a precision in the fragment shader.
+                (USE_CUBEMAP ? "#define CUBEMAP\n" : "")
+                        + "precision mediump float;         \n"		// Set the default precision to medium. We don't need as high of a precision in the fragment shader.
                         + "varying vec4 v_Color;          \n"		// This is the color from the vertex shader interpolated across the triangle per fragment.
                         + "uniform sampler2D u_Texture;   \n"
+                        + "uniform samplerCube u_Cubemap; \n"
+                        + "uniform sampler2D u_Overlay;   \n"
+                        + "uniform sampler2D u_Heatmap;   \n"
+                        + "uniform sampler2D u_Regions;   \n"	// Region ID per texel, low byte in luminance, high byte in alpha.
+                        + "uniform vec2 u_Highlight;      \n"	// Highlighted ID split the same way, negative for none.
+                        + "uniform sampler2D u_FrameA;    \n"	// Time-series frames around the playback position, premultiplied.
+                        + "uniform sampler2D u_FrameB;    \n"
+                        + "uniform float u_FrameBlend;    \n"	// Weight of u_FrameB.
                         + "varying vec2 v_TexCoordinate;  \n"
+                        + "varying vec3 v_Normal;         \n"
                         + "void main()                    \n"		// The entry point for our fragment shader.
                         + "{                              \n"
-                        + "   gl_FragColor = (v_Color * texture2D(u_Texture, v_TexCoordinate)); \n"	// Pass the color directly through the pipeline.
+                        + "   vec4 overlay = texture2D(u_Overlay, v_TexCoordinate); \n"	// Overlay is premultiplied by alpha.
+                        + "   vec4 heat = texture2D(u_Heatmap, v_TexCoordinate);    \n"	// Heatmap is premultiplied too.
+                        // The cube map needs no texture coordinates, so it has no seam at 180 degrees.
+                        + "#ifdef CUBEMAP\n"
+                        + "   vec4 map = textureCube(u_Cubemap, v_Normal);          \n"
+                        + "#else\n"
+                        + "   vec4 map = texture2D(u_Texture, v_TexCoordinate);     \n"
+                        + "#endif\n"
+                        + "   vec3 color = map.rgb * (1.0 - heat.a) + heat.rgb;     \n"
+                        // Compare bytes rather than whole IDs, mediump can't hold 16-bit integers exactly.
+                        + "   vec2 region = texture2D(u_Regions, v_TexCoordinate).ra; \n"
+                        + "   vec2 match = step(abs(region - u_Highlight), vec2(0.5 / 255.0)); \n"
+                        + "   color = mix(color, vec3(1.0, 0.85, 0.3), 0.45 * match.x * match.y); \n"
+                        + "   vec4 frame = mix(texture2D(u_FrameA, v_TexCoordinate), texture2D(u_FrameB, v_TexCoordinate), u_FrameBlend); \n"
+                        + "   color = color * (1.0 - frame.a) + frame.rgb; \n"
+                        + "   gl_FragColor = v_Color * vec4(color * (1.0 - overlay.a) + overlay.rgb, 1.0); \n"
+                        + "}                              \n";
+        return fragmentShader;
+    }
+
+    protected String getLabelVertexShader() {
+        final String vertexShader =
+                "attribute vec4 a_Position;     \n"	// Already in normalized device coordinates.
+                        + "attribute vec4 a_Color;        \n"
+                        + "attribute vec2 a_TexCoordinate;\n"
+                        + "varying vec2 v_TexCoordinate;  \n"
+                        + "varying vec4 v_Color;          \n"
+                        + "void main()                    \n"
+                        + "{                              \n"
+                        + "   v_Color = a_Color;          \n"
+                        + "   v_TexCoordinate = a_TexCoordinate; \n"
+                        + "   gl_Position = a_Position;   \n"
+                        + "}\n";
+        return vertexShader;
+    }
+
+    protected String getLabelFragmentShader() {
+        final String fragmentShader =
+                "precision mediump float;         \n"
+                        + "uniform sampler2D u_Atlas;     \n"	// Glyphs, premultiplied by alpha.
+                        + "varying vec2 v_TexCoordinate;  \n"
+                        + "varying vec4 v_Color;          \n"
+                        + "void main()                    \n"
+                        + "{                              \n"
+                        + "   gl_FragColor = texture2D(u_Atlas, v_TexCoordinate) * v_Color; \n"
                         + "}                              \n";
         return fragmentShader;
     }
@@ -159,20 +351,6 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer {
         // Enable depth testing
         GLES20.glEnable(GLES20.GL_DEPTH_TEST);
 
-//        // Set the view matrix. This matrix can be said to represent the camera position.
-//        // NOTE: In OpenGL 1, a ModelView matrix is used, which is a combination of a model and
-//        // view matrix. In OpenGL 2, we can keep track of these matrices separately if we choose.
-//        Matrix.setLookAtM(mViewMatrix, 0, eye[0], eye[1], eye[2], look[0], look[1], look[2], up[0], up[1], up[2]);
-//
-//        // Invert mViewMatrix for ray calculations
-//        Matrix.invertM(mInverseViewMatrix, 0, mViewMatrix, 0);
-
-        // Previous section replaced by this function
-        calculateViewMatrix();
-
-        // Invert mViewMatrix for ray calculations
-        Matrix.invertM(mInverseViewMatrix, 0, mViewMatrix, 0);
-
         final String vertexShader = getVertexShader();
         final String fragmentShader = getFragmentShader();
 
@@ -181,31 +359,61 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer {
 
         mPerVertexProgramHandle = createAndLinkProgram(vertexShaderHandle, fragmentShaderHandle,
                 new String[] {"a_Position",  "a_Color", "a_TexCoordinate"});
-    }
 
+        // Set program handles for globe drawing.
+        mMVPMatrixHandle = GLES20.glGetUniformLocation(mPerVertexProgramHandle, "u_MVPMatrix");
+        mMVMatrixHandle = GLES20.glGetUniformLocation(mPerVertexProgramHandle, "u_MVMatrix");
+        mTextureUniformHandle = GLES20.glGetUniformLocation(mPerVertexProgramHandle, "u_Texture");
+        mCubemapUniformHandle = GLES20.glGetUniformLocation(mPerVertexProgramHandle, "u_Cubemap");
+        mOverlayUniformHandle = GLES20.glGetUniformLocation(mPerVertexProgramHandle, "u_Overlay");
+        mHeatmapUniformHandle = GLES20.glGetUniformLocation(mPerVertexProgramHandle, "u_Heatmap");
+        mRegionUniformHandle = GLES20.glGetUniformLocation(mPerVertexProgramHandle, "u_Regions");
+        mHighlightUniformHandle = GLES20.glGetUniformLocation(mPerVertexProgramHandle, "u_Highlight");
+        mFrameAUniformHandle = GLES20.glGetUniformLocation(mPerVertexProgramHandle, "u_FrameA");
+        mFrameBUniformHandle = GLES20.glGetUniformLocation(mPerVertexProgramHandle, "u_FrameB");
+        mFrameBlendUniformHandle = GLES20.glGetUniformLocation(mPerVertexProgramHandle, "u_FrameBlend");
+        mPositionHandle = GLES20.glGetAttribLocation(mPerVertexProgramHandle, "a_Position");
+        mColorHandle = GLES20.glGetAttribLocation(mPerVertexProgramHandle, "a_Color");
+        mTextureCoordinateHandle = GLES20.glGetAttribLocation(mPerVertexProgramHandle, "a_TexCoordinate");
 
-    public void updateEyeAngle(float yAngle) {
-        // eye = {0.0f, 0.0f, 5.0f}
-        // look = {0.0f, 0.0f, -5.0f}
-        // up = {0.0f, 1.0f, 0.0f}
-        eye[1] = (float) Math.sin(yAngle * Math.PI / 180) * 5f;
-        eye[2] = (float) Math.cos(yAngle * Math.PI / 180) * 5f;
-        look[1] = (float) Math.sin(yAngle * Math.PI / 180) * -5.0f;
-        look[2] = (float) Math.cos(yAngle * Math.PI / 180) * -5.0f;
-        up[1] = (float) Math.cos(yAngle * Math.PI / 180);
-        up[2] = (float) Math.sin(yAngle * Math.PI / 180) * -1.0f;
-        calculateViewMatrix();
+        // Labels bind the same attribute locations, so setVertexBuffers() serves both programs.
+        mLabelProgramHandle = createAndLinkProgram(compileShader(GLES20.GL_VERTEX_SHADER, getLabelVertexShader()),
+                compileShader(GLES20.GL_FRAGMENT_SHADER, getLabelFragmentShader()),
+                new String[] {"a_Position",  "a_Color", "a_TexCoordinate"});
+        mLabelAtlasUniformHandle = GLES20.glGetUniformLocation(mLabelProgramHandle, "u_Atlas");
+
+        // Runs again after a context loss; the cache makes that a file map and an upload.
+        long start = System.nanoTime();
+        mTextureDataHandle = USE_CUBEMAP ? 0 : loadTexture(mMapCaches[0]);
+        mCubemapDataHandle = USE_CUBEMAP ? loadCubemapTexture(mMapCaches) : 0;
+        mOverlayDataHandle = loadOverlayTexture();
+        mHeatmapDataHandle = loadHeatmapTexture();
+        mRegionDataHandle = loadRegionTexture();
+        mEmptyTextureDataHandle = loadEmptyTexture();
+        loadPlaybackTextures();
+        mLabelAtlasDataHandle = loadLabelAtlasTexture();
+        Log.d(TAG, "Textures loaded in " + (System.nanoTime() - start) / 1000000 + " ms"
+                + (mMapCaches[0].decoded ? " (cache written)" : " (cache hit)"));
+
+        // The offscreen target went with the old context.
+        mFramebufferHandle = 0;
+        // Context creation and texture loading are no frame time.
+        mLastFrameStart = 0;
+
+        // New context, new handles and no bindings. Frames in the lost ring are uploaded again.
+        OverlayPlayback current = playback;
+        if (current != null) {
+            current.invalidate();
+        }
+        renderQueue.invalidate();
+        screenQueue.invalidate();
     }
 
-
-    private void calculateViewMatrix() {
-        // Set the view matrix. This matrix can be said to represent the camera position.
-        // NOTE: In OpenGL 1, a ModelView matrix is used, which is a combination of a model and
-        // view matrix. In OpenGL 2, we can keep track of these matrices separately if we choose.
-        Matrix.setLookAtM(mViewMatrix, 0, eye[0], eye[1], eye[2], look[0], look[1], look[2], up[0], up[1], up[2]);
-
-//        // Invert mViewMatrix for ray calculations
-//        Matrix.invertM(mInverseViewMatrix, 0, mViewMatrix, 0);
+    /**
+     * Call after the GL thread paused. The time spent paused is no frame time, so the first frame after
+     * resuming isn't judged by the governor. */
+    public void onPause() {
+        mLastFrameStart = 0;
     }
 
 
@@ -216,131 +424,704 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer {
 
         // Set the OpenGL viewport to the same size as the surface.
         GLES20.glViewport(0, 0, width, height);
-        // Calculate initial projection matrix
-        calculateProjection(width, height, 1);
     }
 
 
-    public void calculateProjection(int width, int height, float scale) {
-        // Create a new perspective projection matrix.
-        // The height will stay the same while the width will vary as per aspect ratio.
-        // Added scale factor for zoom functionality.
-        final float ratio = (float) width / height;
-        final float left = -ratio * scale;
-        final float right = ratio * scale;
-        final float bottom = -1.0f * scale;
-        final float top = 1.0f * scale;
-        final float near = 1.0f;
-        final float far = 10.0f;
+    /**
+     * Asks the renderer to continue rotating at the given speed. UI thread only. */
+    public void postMovement(float xMovement, float yMovement) {
+        intents.postMovement(xMovement, yMovement);
+    }
+
+
+    /**
+     * Asks the renderer to zoom. UI thread only. */
+    public void postZoom(float sizeCoef) {
+        intents.postZoom(sizeCoef);
+    }
+
+
+    /**
+     * Asks the renderer to move the marker on the overlay. UI thread only. */
+    public void postMarker(float x, float y) {
+        intents.postMarker(x, y);
+    }
+
+
+    /**
+     * Asks the renderer to highlight a region of the region raster, 0 for none. UI thread only. */
+    public void postHighlight(int regionId) {
+        intents.postHighlight(regionId);
+    }
+
+
+    /**
+     * Applies the newest intent posted by the UI thread, if any. */
+    private void applyIntents() {
+        if (!intents.apply(motion, mGlobeCamera)) {
+            return;
+        }
+        if (intents.markerRequested) {
+            drawPointOnBitmap(intents.markerX, intents.markerY);
+        }
+        mHighlightRegion = intents.highlightRegion;
+    }
+
 
-        // Calculate projection matrix
-        Matrix.frustumM(mProjectionMatrix, 0, left, right, bottom, top, near, far);
-        // Invert projection matrix for ray calculations
-        Matrix.invertM(mInverseProjectionMatrix, 0, mProjectionMatrix, 0);
+    /**
+     * Publishes the camera of the frame just drawn for picking on the UI thread. */
+    private void publishCamera() {
+        mGlobeCamera.snapshot(camera.getBack());
+        camera.publish();
     }
 
 
     @Override
     public void onDrawFrame(GL10 gl) {
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+        long frameStart = System.nanoTime();
+        if (mLastFrameStart != 0 && governor.onFrame(frameStart - mLastFrameStart)) {
+            applyQuality();
+        }
+        mLastFrameStart = frameStart;
 
-        // Set our per-vertex lighting program.
-        GLES20.glUseProgram(mPerVertexProgramHandle);
+        applyIntents();
 
-        // Set program handles for cube drawing.
-        mMVPMatrixHandle = GLES20.glGetUniformLocation(mPerVertexProgramHandle, "u_MVPMatrix");
-        mMVMatrixHandle = GLES20.glGetUniformLocation(mPerVertexProgramHandle, "u_MVMatrix");
-        mTextureUniformHandle = GLES20.glGetUniformLocation(mPerVertexProgramHandle, "u_Texture");
-        mPositionHandle = GLES20.glGetAttribLocation(mPerVertexProgramHandle, "a_Position");
-        mColorHandle = GLES20.glGetAttribLocation(mPerVertexProgramHandle, "a_Color");
-        mTextureCoordinateHandle = GLES20.glGetAttribLocation(mPerVertexProgramHandle, "a_TexCoordinate");
+        bindRenderTarget();
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
 
         // Draw the object
-        float slowCoefficient = 0.93f;
-        float verticalMovementRatio = 0.7f;
-        int maxAngle = 45;
-
-        Matrix.setIdentityM(mModelMatrix, 0);
-        Matrix.translateM(mModelMatrix, 0, 0.0f, 0.0f, 0.0f);
-        // Slowing down yMovement and xMovement
-        if (Math.abs(xMovement) < 0.08) {
-            xMovement = 0;
-        } else {
-            xMovement = Math.round(xMovement * slowCoefficient * 100) / 100f;
+        motion.step();
+        mGlobeCamera.xAngle = motion.xAngle;
+        mGlobeCamera.yAngle = motion.yAngle;
+        mGlobeCamera.update(viewportWidth, viewportHeight);
+
+        Terrain currentTerrain = swapTerrain();
+        if (currentTerrain != null || labels != null) {
+            updateModelEye();
+        }
+        if (currentTerrain != null) {
+            currentTerrain.update(mModelEye[0], mModelEye[1], mModelEye[2]);
         }
-        if (Math.abs(yMovement) < 0.08) {
-            yMovement = 0;
+        uploadChangedTextures();
+        updateLabels();
+
+        renderQueue.render(this);
+        presentRenderTarget();
+        drawScreenLayers();
+        if (++mFrameCount % STATS_INTERVAL == 0) {
+            Log.d(TAG, "Frame: quality " + governor.getLevel() + ", " + renderQueue.drawCalls + " draws of " + renderQueue.commands + " commands, "
+                    + renderQueue.programChanges + " program, " + renderQueue.textureChanges + " texture, "
+                    + renderQueue.blendChanges + " blend, " + renderQueue.bufferChanges + " buffer changes, "
+                    + renderQueue.layersDrawn + " layers drawn, " + renderQueue.layersSkipped + " skipped, "
+                    + renderQueue.layersSubmitted + " resubmitted, " + screenQueue.drawCalls + " screen draws"
+                    + ((mUploadedPlayback != null) ? ", playback " + mUploadedPlayback.displayedFrames + " shown, "
+                            + mUploadedPlayback.droppedFrames + " dropped" : "")
+                    + ((mPlacedLabels != null) ? ", labels " + mPlacedLabels.placed + " placed, "
+                            + mPlacedLabels.culled + " culled, " + mPlacedLabels.collided + " overlapping in "
+                            + mPlacedLabels.placeNanos / 1000 + " us" : ""));
+        }
+
+        publishCamera();
+
+        if (!mFirstFrameDrawn) {
+            mFirstFrameDrawn = true;
+            Log.d(TAG, "First frame drawn " + (System.nanoTime() - mCreatedTime) / 1000000
+                    + " ms after renderer creation");
+        }
+    }
+
+    /**
+     * Applies the quality level the governor picked. Render scale is picked up by bindRenderTarget(). */
+    private void applyQuality() {
+        if (governor.getSphereStep() != sphereStep) {
+            sphereStep = governor.getSphereStep();
+            Object = new Sphere(radius, sphereStep);
+            mObjectPositions = Object.objectVertex;
+            mObjectColors = Object.objectColor;
+            mObjectTextures = Object.objectTexture;
+            mGlobeVersion++;
+        }
+        if (governor.getOverlayScale() != mOverlayScale) {
+            resizeOverlay(governor.getOverlayScale());
+        }
+        Log.d(TAG, "Quality level " + governor.getLevel() + ": sphere step " + sphereStep + ", overlay scale "
+                + mOverlayScale + ", render scale " + governor.getRenderScale());
+    }
+
+    /**
+     * Replaces the overlay bitmap and texture by ones of another resolution, keeping the marker. */
+    private void resizeOverlay(float scale) {
+        mOverlayScale = scale;
+        Bitmap old = overlay;
+        overlay = Bitmap.createBitmap(Math.max(1, Math.round(pWidth * scale)), Math.max(1, Math.round(pHeight * scale)),
+                Bitmap.Config.ARGB_8888);
+        Overlay = new Canvas(overlay);
+        if (mHasMarker) {
+            drawPointOnBitmap(mMarkerX, mMarkerY);
+        }
+        // Another size needs new storage, not a sub-image upload.
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + UPLOAD_TEXTURE_UNIT);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mOverlayDataHandle);
+        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, overlay, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        mOverlayDirty = false;
+        // Only this thread draws into or uploads the overlay, the old pixels aren't needed anymore.
+        old.recycle();
+    }
+
+    /**
+     * Directs this frame into the offscreen target when the governor lowered the render scale. */
+    private void bindRenderTarget() {
+        float scale = governor.getRenderScale();
+        if (scale >= 1f || mFramebufferFailed) {
+            if (mFramebufferHandle != 0) {
+                deleteRenderTarget();
+            }
+            return;
+        }
+        int width = Math.max(1, Math.round(viewportWidth * scale));
+        int height = Math.max(1, Math.round(viewportHeight * scale));
+        if (mFramebufferHandle == 0 || width != mFramebufferWidth || height != mFramebufferHeight) {
+            if (mFramebufferHandle != 0) {
+                deleteRenderTarget();
+            }
+            if (!createRenderTarget(width, height)) {
+                return;
+            }
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebufferHandle);
+        GLES20.glViewport(0, 0, width, height);
+    }
+
+    /**
+     * Scales the offscreen target up to the screen, if this frame was drawn into one. */
+    private void presentRenderTarget() {
+        if (mFramebufferHandle == 0) {
+            return;
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        GLES20.glViewport(0, 0, viewportWidth, viewportHeight);
+
+        // The label program draws textured quads in device coordinates, all the copy needs.
+        GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+        useProgram(mLabelProgramHandle);
+        bindTexture(0, mFramebufferTextureHandle);
+        setBlend(RenderQueue.BLEND_OPAQUE);
+        setVertexBuffers(mScreenPositions, mScreenTextures, null);
+        drawArrays(0, 6);
+        GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+
+        // Calls made behind the queue's back.
+        renderQueue.forgetState();
+    }
+
+    /**
+     * Draws the screen layers straight to the screen at full resolution, over the presented frame. */
+    private void drawScreenLayers() {
+        // Screen layers are in device coordinates over everything, and the screen's depth buffer
+        // wasn't cleared when the frame went through the offscreen target.
+        GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+        // Both queues set state the other one doesn't know about.
+        screenQueue.forgetState();
+        screenQueue.render(this);
+        renderQueue.forgetState();
+        GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+    }
+
+    /**
+     * Creates the offscreen target: a color texture and a depth buffer.
+     * @return False if the device can't render into it, rendering stays at full resolution then. */
+    private boolean createRenderTarget(int width, int height) {
+        final int[] handle = new int[1];
+
+        GLES20.glGenTextures(1, handle, 0);
+        mFramebufferTextureHandle = handle[0];
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + UPLOAD_TEXTURE_UNIT);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mFramebufferTextureHandle);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+
+        GLES20.glGenRenderbuffers(1, handle, 0);
+        mDepthRenderbufferHandle = handle[0];
+        GLES20.glBindRenderbuffer(GLES20.GL_RENDERBUFFER, mDepthRenderbufferHandle);
+        GLES20.glRenderbufferStorage(GLES20.GL_RENDERBUFFER, GLES20.GL_DEPTH_COMPONENT16, width, height);
+        GLES20.glBindRenderbuffer(GLES20.GL_RENDERBUFFER, 0);
+
+        GLES20.glGenFramebuffers(1, handle, 0);
+        mFramebufferHandle = handle[0];
+        mFramebufferWidth = width;
+        mFramebufferHeight = height;
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebufferHandle);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, mFramebufferTextureHandle, 0);
+        GLES20.glFramebufferRenderbuffer(GLES20.GL_FRAMEBUFFER, GLES20.GL_DEPTH_ATTACHMENT,
+                GLES20.GL_RENDERBUFFER, mDepthRenderbufferHandle);
+        int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            Log.e(TAG, "Offscreen target incomplete: " + status + ", rendering at full resolution");
+            deleteRenderTarget();
+            mFramebufferFailed = true;
+            return false;
+        }
+        return true;
+    }
+
+    private void deleteRenderTarget() {
+        GLES20.glDeleteFramebuffers(1, new int[] {mFramebufferHandle}, 0);
+        GLES20.glDeleteRenderbuffers(1, new int[] {mDepthRenderbufferHandle}, 0);
+        GLES20.glDeleteTextures(1, new int[] {mFramebufferTextureHandle}, 0);
+        mFramebufferHandle = 0;
+    }
+
+    /**
+     * Creates a density layer matching the overlay size, replacing the one shown before from the next
+     * frame on. Any thread. Samples can be added from any thread.
+     * @return The new layer. */
+    public HeatmapLayer enableHeatmap() {
+        HeatmapLayer layer = new HeatmapLayer(pWidth, pHeight);
+        HeatmapLayer skipped = mNewHeatmap.getAndSet(layer);
+        if (skipped != null) {
+            // Replaced before the GL thread ever saw it.
+            skipped.release();
+        }
+        return layer;
+    }
+
+    /**
+     * Starts playing a time-series overlay over the map, replacing the one playing before.
+     * @param source Frames in the map texture layout, all of the same size.
+     * @param width Frame width in pixels.
+     * @param height Frame height in pixels.
+     * @param framesPerSecond Playback rate, frames in between are blended.
+     * @param lookAhead Frames decoded ahead of the one shown. */
+    public void startPlayback(OverlayFrameSource source, int width, int height, float framesPerSecond, int lookAhead) {
+        stopPlayback();
+        playback = new OverlayPlayback(source, width, height, framesPerSecond, lookAhead);
+    }
+
+    /** Stops the time-series overlay, if any. */
+    public void stopPlayback() {
+        OverlayPlayback stopped = playback;
+        playback = null;
+        if (stopped != null) {
+            stopped.release();
+        }
+    }
+
+    /**
+     * Shows place-name labels on the globe, replacing any shown before. Renders their glyph atlas, so
+     * better called off the UI thread for large sets.
+     * @param names Label texts, null to remove all labels. Earlier labels win where labels overlap.
+     * @param latitudes Latitudes in degrees, north positive.
+     * @param longitudes Longitudes in degrees, east positive.
+     * @param textSize Text size in pixels. */
+    public void setLabels(String[] names, float[] latitudes, float[] longitudes, float textSize) {
+        labels = (names != null)
+                ? new LabelPlacer(GlyphAtlas.create(names, textSize), names, latitudes, longitudes, radius)
+                : null;
+    }
+
+    /**
+     * Sets the raster used to identify and highlight regions on tap, null to disable.
+     * @param raster Region IDs in the map texture layout. */
+    public void setRegions(RegionRaster raster) {
+        regions = raster;
+        mRegionsDirty = true;
+    }
+
+    /**
+     * Enables relief on the globe. Tiles are requested from the source as chunks come into view. Any
+     * thread, the GL thread swaps the terrain in on its next frame.
+     * @param source Provider of elevation tiles, null to remove the relief.
+     * @param tilesX Number of tiles around the equator.
+     * @param tilesY Number of tiles from pole to pole.
+     * @param heightScale Radial displacement per meter of elevation. */
+    public void setTerrain(HeightTileSource source, int tilesX, int tilesY, float heightScale) {
+        mTerrainRequest.set(new TerrainRequest(source, tilesX, tilesY, heightScale));
+    }
+
+    /** Arguments of the last setTerrain() call. */
+    private static class TerrainRequest {
+        final HeightTileSource source;
+        final int tilesX, tilesY;
+        final float heightScale;
+
+        TerrainRequest(HeightTileSource source, int tilesX, int tilesY, float heightScale) {
+            this.source = source;
+            this.tilesX = tilesX;
+            this.tilesY = tilesY;
+            this.heightScale = heightScale;
+        }
+    }
+
+    /**
+     * Replaces the terrain if setTerrain() was called since the last frame. The old terrain is released
+     * here, where nothing can be inside its update() anymore.
+     * @return The terrain to draw this frame, or null. */
+    private Terrain swapTerrain() {
+        TerrainRequest request = mTerrainRequest.getAndSet(null);
+        if (request == null) {
+            return terrain;
+        }
+        if (terrain != null) {
+            terrain.release();
+        }
+        terrain = (request.source != null)
+                ? new Terrain(request.source, request.tilesX, request.tilesY, radius, request.heightScale)
+                : null;
+        return terrain;
+    }
+
+    /**
+     * Uploads the overlay, heatmap, region, playback and label textures that changed since the last frame. */
+    private void uploadChangedTextures() {
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + UPLOAD_TEXTURE_UNIT);
+
+        // Overlay is only uploaded again when it changed.
+        if (mOverlayDirty) {
+            mOverlayDirty = false;
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mOverlayDataHandle);
+            GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, overlay);
+        }
+
+        // A new layer starts empty, its frames are handed back to it only.
+        HeatmapLayer added = mNewHeatmap.getAndSet(null);
+        if (added != null) {
+            if (mHeatmap != null) {
+                mHeatmap.release();
+            }
+            mHeatmap = added;
+            mHeatmapFrame = null;
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mHeatmapDataHandle);
+            uploadHeatmap();
+        }
+
+        // Heatmap is uploaded whenever a new frame was colorized.
+        if (mHeatmap != null) {
+            ByteBuffer frame = mHeatmap.takeFrame();
+            if (frame != null) {
+                if (mHeatmapFrame != null) {
+                    mHeatmap.releaseFrame(mHeatmapFrame);
+                }
+                mHeatmapFrame = frame;
+                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mHeatmapDataHandle);
+                uploadHeatmap();
+            }
+        }
+
+        // Region IDs only change when another raster is set.
+        if (mRegionsDirty) {
+            mRegionsDirty = false;
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mRegionDataHandle);
+            uploadRegions();
+        }
+
+        updatePlayback();
+
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+    }
+
+    /**
+     * Advances the time-series overlay and makes globe commands bind the frames to blend. */
+    private void updatePlayback() {
+        OverlayPlayback current = playback;
+        if (current != mUploadedPlayback) {
+            // Another frame size, the ring textures need new storage.
+            mUploadedPlayback = current;
+            for (int i = 0; i < mPlaybackTextureAllocated.length; i++) {
+                mPlaybackTextureAllocated[i] = false;
+            }
+            mGlobeVersion++;
+        }
+        if (current == null) {
+            return;
+        }
+        int slotA = current.slotA;
+        int slotB = current.slotB;
+        current.update(System.nanoTime(), this);
+        if (current.slotA != slotA || current.slotB != slotB) {
+            mGlobeVersion++;
+        }
+    }
+
+    @Override
+    public void upload(int slot, ByteBuffer pixels) {
+        OverlayPlayback current = mUploadedPlayback;
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mPlaybackTextureHandles[slot]);
+        if (mPlaybackTextureAllocated[slot]) {
+            GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, current.width, current.height,
+                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixels);
         } else {
-            yMovement = Math.round(yMovement * slowCoefficient * 100) / 100f;
+            mPlaybackTextureAllocated[slot] = true;
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, current.width, current.height, 0,
+                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixels);
         }
-        xAngle += xMovement;
-        yAngle += yMovement * verticalMovementRatio;
+    }
 
-        // Restrict yAngle to +/- maxAngle degrees
-        yAngle = Math.min(maxAngle, Math.max(-maxAngle, yAngle));
-        // Restrict xAngle to 0 - 360 degrees
-        xAngle = (xAngle + 360) % 360;
+    /**
+     * Transforms the eye into model space, for terrain detail selection and label culling. */
+    private void updateModelEye() {
+        System.arraycopy(mGlobeCamera.eye, 0, mWorldEye, 0, 3);
+        Matrix.invertM(mInverseModelMatrix, 0, mGlobeCamera.modelMatrix, 0);
+        Matrix.multiplyMV(mModelEye, 0, mInverseModelMatrix, 0, mWorldEye, 0);
+    }
 
-        // Rotate Eye angle by yAngle
-        updateEyeAngle(-yAngle);
+    /**
+     * Places the labels again if they, the camera or the viewport changed since the last placement. */
+    private void updateLabels() {
+        LabelPlacer current = labels;
+        if (current == null) {
+            mPlacedLabels = null;
+            return;
+        }
+        float[] mvp = mGlobeCamera.mvpMatrix;
+        if (current == mPlacedLabels && viewportWidth == mPlacedViewportWidth
+                && viewportHeight == mPlacedViewportHeight && Arrays.equals(mvp, mPlacedLabelMatrix)) {
+            return;
+        }
+        if (current != mPlacedLabels) {
+            // Upload from the same placer the quads come from, labels may be swapped at any time.
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + UPLOAD_TEXTURE_UNIT);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mLabelAtlasDataHandle);
+            GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, current.atlas.bitmap, 0);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        }
+        current.place(mvp, mModelEye[0], mModelEye[1], mModelEye[2], viewportWidth, viewportHeight);
+        mPlacedLabels = current;
+        mPlacedViewportWidth = viewportWidth;
+        mPlacedViewportHeight = viewportHeight;
+        System.arraycopy(mvp, 0, mPlacedLabelMatrix, 0, 16);
+        mLabelsVersion++;
+    }
 
-        Matrix.rotateM(mModelMatrix, 0, 0, 1.0f, 0.0f, 0.0f); // pitch  // -yAngle
-        Matrix.rotateM(mModelMatrix, 0, -xAngle, 0.0f, 1.0f, 0.0f); // roll
+    /**
+     * Sets the samplers of the globe program to the texture units globe commands bind. */
+    private void setGlobeTextures(DrawCommand command) {
+        command.program = mPerVertexProgramHandle;
+        command.textures[0] = mTextureDataHandle;
+        command.textures[1] = mOverlayDataHandle;
+        command.textures[2] = mHeatmapDataHandle;
+        command.textures[3] = mRegionDataHandle;
+        OverlayPlayback current = mUploadedPlayback;
+        boolean playing = current != null && current.slotA >= 0;
+        command.textures[4] = playing ? mPlaybackTextureHandles[current.slotA] : mEmptyTextureDataHandle;
+        command.textures[5] = playing ? mPlaybackTextureHandles[current.slotB] : mEmptyTextureDataHandle;
+        command.textures[RenderQueue.CUBEMAP_UNIT] = mCubemapDataHandle;
+    }
+
+    /**
+     * The plain sphere, drawn while there is no terrain. */
+    private class SphereLayer implements RenderLayer {
+        private final DrawCommand mCommand = new DrawCommand();
+
+        @Override
+        public int getOrder() {
+            return 0;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return terrain != null;
+        }
+
+        @Override
+        public int getVersion() {
+            return mGlobeVersion;
+        }
+
+        @Override
+        public void submit(RenderQueue queue) {
+            setGlobeTextures(mCommand);
+            mCommand.positions = mObjectPositions;
+            mCommand.colors = mObjectColors;
+            mCommand.textureCoordinates = mObjectTextures;
+            mCommand.count = Object.mTriangles * 3;
+            queue.add(mCommand);
+        }
+    }
 
-        // Put overlay Bitmap on map Bitmap
-        Rect rectangle = new Rect(0, 0, pWidth, pHeight);
-        Result.drawBitmap(bitmap, new Rect(0, 0, pWidth, pHeight), rectangle, null);
-        Result.drawBitmap(overlay, 0, 0, null);
+    /**
+     * The terrain chunks that have been built so far. */
+    private class TerrainLayer implements RenderLayer {
+        private DrawCommand[] mCommands = new DrawCommand[0];
+        private Terrain mTerrain;
+        private int mVersionOffset = 0;
+        private int mVersion = 0;
+
+        @Override
+        public int getOrder() {
+            return 0;
+        }
 
-        // Set the active texture unit
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        // Update existing texture|
-        GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D,0,0,0, bitmapSum);
-        // Bind the texture to this unit.
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureDataHandle);
-        // Tell the texture uniform sampler to use this texture in the shader by binding to texture unit 0.
-        GLES20.glUniform1i(mTextureUniformHandle, 0);
+        @Override
+        public boolean isEmpty() {
+            return terrain == null;
+        }
 
-        drawObject();
+        @Override
+        public int getVersion() {
+            if (mTerrain != terrain) {
+                // Another terrain counts its chunk versions from 0 again, continue past the last one.
+                mTerrain = terrain;
+                mVersionOffset = mVersion + 1;
+                mCommands = new DrawCommand[mTerrain.getChunkCount()];
+                for (int i = 0; i < mCommands.length; i++) {
+                    mCommands[i] = new DrawCommand();
+                }
+            }
+            mVersion = mVersionOffset + mTerrain.getChunkVersion() + mGlobeVersion;
+            return mVersion;
+        }
+
+        @Override
+        public void submit(RenderQueue queue) {
+            for (int i = 0; i < mCommands.length; i++) {
+                TerrainChunk chunk = mTerrain.getChunk(i);
+                if (chunk == null) {
+                    continue;
+                }
+                // Chunks carry no colors, constant white is used instead.
+                DrawCommand command = mCommands[i];
+                setGlobeTextures(command);
+                command.positions = chunk.objectVertex;
+                command.textureCoordinates = chunk.objectTexture;
+                command.colors = null;
+                command.count = chunk.mTriangles * 3;
+                queue.add(command);
+            }
+        }
     }
 
     /**
-     * Draws the object. */
-    private void drawObject() {
+     * The labels placed for the current camera, drawn over the globe by the screen queue, so text stays
+     * sharp when the globe is rendered below full resolution. */
+    private class LabelLayer implements RenderLayer {
+        private final DrawCommand mCommand = new DrawCommand();
+
+        @Override
+        public int getOrder() {
+            return 1;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return mPlacedLabels == null || mPlacedLabels.vertexCount == 0;
+        }
+
+        @Override
+        public int getVersion() {
+            return mLabelsVersion;
+        }
+
+        @Override
+        public void submit(RenderQueue queue) {
+            mCommand.program = mLabelProgramHandle;
+            mCommand.textures[0] = mLabelAtlasDataHandle;
+            mCommand.blend = RenderQueue.BLEND_PREMULTIPLIED;
+            mCommand.positions = mPlacedLabels.positions;
+            mCommand.textureCoordinates = mPlacedLabels.textureCoordinates;
+            mCommand.colors = null;
+            mCommand.count = mPlacedLabels.vertexCount;
+            queue.add(mCommand);
+        }
+    }
+
+    @Override
+    public void useProgram(int program) {
+        GLES20.glUseProgram(program);
+        if (program == mLabelProgramHandle) {
+            GLES20.glUniform1i(mLabelAtlasUniformHandle, 0);
+        } else if (program == mPerVertexProgramHandle) {
+            GLES20.glUniform1i(mTextureUniformHandle, 0);
+            GLES20.glUniform1i(mOverlayUniformHandle, 1);
+            GLES20.glUniform1i(mHeatmapUniformHandle, 2);
+            GLES20.glUniform1i(mRegionUniformHandle, 3);
+            GLES20.glUniform1i(mFrameAUniformHandle, 4);
+            GLES20.glUniform1i(mFrameBUniformHandle, 5);
+            GLES20.glUniform1i(mCubemapUniformHandle, RenderQueue.CUBEMAP_UNIT);
+            OverlayPlayback current = mUploadedPlayback;
+            GLES20.glUniform1f(mFrameBlendUniformHandle, (current != null) ? current.blend : 0f);
+            if (mHighlightRegion != 0) {
+                GLES20.glUniform2f(mHighlightUniformHandle,
+                        (mHighlightRegion & 0xFF) / 255f, (mHighlightRegion >> 8) / 255f);
+            } else {
+                GLES20.glUniform2f(mHighlightUniformHandle, -1f, -1f);
+            }
+            passMatrices();
+        }
+    }
+
+    @Override
+    public void bindTexture(int unit, int texture) {
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + unit);
+        GLES20.glBindTexture((unit == RenderQueue.CUBEMAP_UNIT) ? GLES20.GL_TEXTURE_CUBE_MAP : GLES20.GL_TEXTURE_2D,
+                texture);
+    }
+
+    @Override
+    public void setBlend(int blend) {
+        if (blend == RenderQueue.BLEND_OPAQUE) {
+            GLES20.glDisable(GLES20.GL_BLEND);
+            GLES20.glDepthMask(true);
+            return;
+        }
+        // Blended geometry is tested against depth but doesn't hide what is drawn after it.
+        GLES20.glEnable(GLES20.GL_BLEND);
+        GLES20.glDepthMask(false);
+        if (blend == RenderQueue.BLEND_ADDITIVE) {
+            GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE);
+        } else {
+            GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        }
+    }
+
+    @Override
+    public void setVertexBuffers(FloatBuffer positions, FloatBuffer textureCoordinates, FloatBuffer colors) {
         // Pass in the position information
-        mObjectPositions.position(0);
+        positions.position(0);
         GLES20.glVertexAttribPointer(mPositionHandle, mPositionDataSize, GLES20.GL_FLOAT, false,
-                0, mObjectPositions);
+                0, positions);
         GLES20.glEnableVertexAttribArray(mPositionHandle);
 
-        // Pass in the color information
-        mObjectColors.position(0);
-        GLES20.glVertexAttribPointer(mColorHandle, mColorDataSize, GLES20.GL_FLOAT, false,
-                0, mObjectColors);
-        GLES20.glEnableVertexAttribArray(mColorHandle);
+        // Pass in the color information, or a constant white
+        if (colors != null) {
+            colors.position(0);
+            GLES20.glVertexAttribPointer(mColorHandle, mColorDataSize, GLES20.GL_FLOAT, false,
+                    0, colors);
+            GLES20.glEnableVertexAttribArray(mColorHandle);
+        } else {
+            GLES20.glDisableVertexAttribArray(mColorHandle);
+            GLES20.glVertexAttrib4f(mColorHandle, 1f, 1f, 1f, 1f);
+        }
 
         // Pass in the texture coordinate information.
-        mObjectTextures.position(0);
-        GLES20.glVertexAttribPointer(mTextureCoordinateHandle, mTextureDataSize, GLES20.GL_FLOAT, false,
-                0, mObjectTextures);
-        GLES20.glEnableVertexAttribArray(mTextureCoordinateHandle);
-
-        // This multiplies the view matrix by the model matrix, and stores the result in the MVP matrix
-        // (which currently contains model * view).
-        Matrix.multiplyMM(mMVPMatrix, 0, mViewMatrix, 0, mModelMatrix, 0);
-
-        // Pass in the modelview matrix.
-        GLES20.glUniformMatrix4fv(mMVMatrixHandle, 1, false, mMVPMatrix, 0);
-
-        // This multiplies the modelview matrix by the projection matrix, and stores the result in the MVP matrix
-        // (which now contains model * view * projection).
-        Matrix.multiplyMM(mMVPMatrix, 0, mProjectionMatrix, 0, mMVPMatrix, 0);
+        if (textureCoordinates != null) {
+            textureCoordinates.position(0);
+            GLES20.glVertexAttribPointer(mTextureCoordinateHandle, mTextureDataSize, GLES20.GL_FLOAT, false,
+                    0, textureCoordinates);
+            GLES20.glEnableVertexAttribArray(mTextureCoordinateHandle);
+        } else {
+            GLES20.glDisableVertexAttribArray(mTextureCoordinateHandle);
+        }
+    }
 
-        // Pass in the combined matrix.
-        GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mMVPMatrix, 0);
+    @Override
+    public void drawArrays(int first, int count) {
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, first, count);
+    }
 
-        // Draw the object.
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, Object.mTriangles * 3);
+    /**
+     * Passes the model/view and model/view/projection matrices of the frame into the shader. */
+    private void passMatrices() {
+        GLES20.glUniformMatrix4fv(mMVMatrixHandle, 1, false, mGlobeCamera.modelViewMatrix, 0);
+        GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mGlobeCamera.mvpMatrix, 0);
     }
 
 
@@ -407,7 +1188,6 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer {
 
             // Link the two shaders together into a program.
             GLES20.glLinkProgram(programHandle);
-            mTextureDataHandle = loadTexture(mActivityContext, R.drawable.map_world);
 
             // Get the link status.
             final int[] linkStatus = new int[1];
@@ -429,7 +1209,11 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer {
     }
 
 
-    public int loadTexture(GLSurfaceView mActivityContext2, final int resourceId)
+    /**
+     * Uploads the cached map straight from its mapped file, without decoding a Bitmap.
+     * @param cache Cache holding the decoded map.
+     * @return An OpenGL handle to the texture. */
+    public int loadTexture(TextureCache cache)
     {
         final int[] textureHandle = new int[1];
 
@@ -437,17 +1221,12 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer {
 
         if (textureHandle[0] != 0)
         {
-            final BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inScaled = false;   // No pre-scaling
-
-            // Read in the resources and make them mutable (except original map)
-            bitmap = BitmapFactory.decodeResource(mActivityContext2.getResources(), resourceId, options);
-            overlay = Bitmap.createBitmap(pWidth, pHeight, Bitmap.Config.ARGB_8888);
-            overlay = overlay.copy(Bitmap.Config.ARGB_8888, true);
-            bitmapSum = Bitmap.createBitmap(pWidth, pHeight, Bitmap.Config.ARGB_8888);
-            bitmapSum = bitmapSum.copy(Bitmap.Config.ARGB_8888, true);
-
-            GLES20.glGenTextures(1, textureHandle, 0);
+            final TextureCache.Image image;
+            try {
+                image = cache.map();
+            } catch (IOException e) {
+                throw new RuntimeException("Error loading texture.", e);
+            }
 
             // Bind to the texture in OpenGL
             GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[0]);
@@ -456,28 +1235,253 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer {
             GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
             GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
 
-            // Load the bitmapSum into the bound texture.
-            GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmapSum, 0);
+            // Load the mapped pixels into the bound texture.
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, image.width, image.height, 0,
+                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, image.pixels);
             GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        }
+
+        if (textureHandle[0] == 0)
+        {
+            throw new RuntimeException("Error loading texture.");
+        }
+
+        return textureHandle[0];
+    }
+
+
+    /**
+     * Uploads the six cached cube faces into a cube map.
+     * @param caches Caches holding the faces, in the order of GL_TEXTURE_CUBE_MAP_POSITIVE_X and the
+     *               faces following it.
+     * @return An OpenGL handle to the texture. */
+    private int loadCubemapTexture(TextureCache[] caches) {
+        final int[] textureHandle = new int[1];
+
+        GLES20.glGenTextures(1, textureHandle, 0);
+
+        if (textureHandle[0] == 0)
+        {
+            throw new RuntimeException("Error loading texture.");
+        }
+
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_CUBE_MAP, textureHandle[0]);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_CUBE_MAP, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_CUBE_MAP, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        // GLES 2 doesn't filter across faces. Edge texels lie half a texel inside the edge, so
+        // clamping to them leaves no visible seam.
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_CUBE_MAP, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_CUBE_MAP, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        for (int face = 0; face < caches.length; face++) {
+            final TextureCache.Image image;
+            try {
+                image = caches[face].map();
+            } catch (IOException e) {
+                throw new RuntimeException("Error loading texture.", e);
+            }
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_CUBE_MAP_POSITIVE_X + face, 0, GLES20.GL_RGBA,
+                    image.width, image.height, 0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, image.pixels);
+        }
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_CUBE_MAP, 0);
+
+        return textureHandle[0];
+    }
+
+
+    /**
+     * Creates the overlay texture from the current overlay bitmap.
+     * @return An OpenGL handle to the texture. */
+    private int loadOverlayTexture() {
+        final int[] textureHandle = new int[1];
 
-            Overlay = new Canvas(overlay);
-            Result = new Canvas(bitmapSum);
-            paint = new Paint();
+        GLES20.glGenTextures(1, textureHandle, 0);
+
+        if (textureHandle[0] == 0)
+        {
+            throw new RuntimeException("Error loading texture.");
         }
 
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[0]);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, overlay, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        mOverlayDirty = false;
+
+        return textureHandle[0];
+    }
+
+
+    /**
+     * Creates the heatmap texture, filled with the last uploaded frame if there is one.
+     * @return An OpenGL handle to the texture. */
+    private int loadHeatmapTexture() {
+        final int[] textureHandle = new int[1];
+
+        GLES20.glGenTextures(1, textureHandle, 0);
+
         if (textureHandle[0] == 0)
         {
             throw new RuntimeException("Error loading texture.");
         }
 
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[0]);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        // Grids of any size, which are only complete with linear filtering when clamped.
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        uploadHeatmap();
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+
         return textureHandle[0];
     }
 
 
+    /**
+     * Creates the region ID texture, filled from the current raster if there is one.
+     * @return An OpenGL handle to the texture. */
+    private int loadRegionTexture() {
+        final int[] textureHandle = new int[1];
+
+        GLES20.glGenTextures(1, textureHandle, 0);
+
+        if (textureHandle[0] == 0)
+        {
+            throw new RuntimeException("Error loading texture.");
+        }
+
+        // IDs must never be blended between texels.
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[0]);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+        mRegionsDirty = false;
+        uploadRegions();
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+
+        return textureHandle[0];
+    }
+
+
+    /**
+     * Creates a texture of a single transparent texel.
+     * @return An OpenGL handle to the texture. */
+    private int loadEmptyTexture() {
+        final int[] textureHandle = new int[1];
+
+        GLES20.glGenTextures(1, textureHandle, 0);
+
+        if (textureHandle[0] == 0)
+        {
+            throw new RuntimeException("Error loading texture.");
+        }
+
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[0]);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+        ByteBuffer empty = ByteBuffer.allocateDirect(4);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, 1, 1, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, empty);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+
+        return textureHandle[0];
+    }
+
+
+    /**
+     * Creates the playback texture ring. Storage is allocated by the first upload into each. */
+    private void loadPlaybackTextures() {
+        GLES20.glGenTextures(mPlaybackTextureHandles.length, mPlaybackTextureHandles, 0);
+
+        for (int i = 0; i < mPlaybackTextureHandles.length; i++) {
+            if (mPlaybackTextureHandles[i] == 0)
+            {
+                throw new RuntimeException("Error loading texture.");
+            }
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mPlaybackTextureHandles[i]);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+            // Frames can be any size, which only filters linearly when clamped.
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+            mPlaybackTextureAllocated[i] = false;
+        }
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+    }
+
+
+    /**
+     * Creates the glyph atlas texture, filled from the current labels if there are any.
+     * @return An OpenGL handle to the texture. */
+    private int loadLabelAtlasTexture() {
+        final int[] textureHandle = new int[1];
+
+        GLES20.glGenTextures(1, textureHandle, 0);
+
+        if (textureHandle[0] == 0)
+        {
+            throw new RuntimeException("Error loading texture.");
+        }
+
+        // Quads are pixel aligned, glyphs are sampled one to one.
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[0]);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+        // Single transparent texel, updateLabels() places the labels again and uploads their glyphs.
+        ByteBuffer empty = ByteBuffer.allocateDirect(4);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, 1, 1, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, empty);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        mPlacedLabels = null;
+
+        return textureHandle[0];
+    }
+
+    /**
+     * Uploads the current region raster into the bound texture, or a single texel without region. */
+    private void uploadRegions() {
+        RegionRaster raster = regions;
+        if (raster == null) {
+            ByteBuffer empty = ByteBuffer.allocateDirect(2);
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE_ALPHA, 1, 1, 0,
+                    GLES20.GL_LUMINANCE_ALPHA, GLES20.GL_UNSIGNED_BYTE, empty);
+            return;
+        }
+        // Rows are 2 bytes per texel and only 2 byte aligned for odd widths.
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 2);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE_ALPHA, raster.width, raster.height, 0,
+                GLES20.GL_LUMINANCE_ALPHA, GLES20.GL_UNSIGNED_BYTE, raster.getTexels());
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 4);
+    }
+
+
+    /**
+     * Uploads the current heatmap frame into the bound texture, or a transparent texel until the first
+     * frame arrives. */
+    private void uploadHeatmap() {
+        if (mHeatmapFrame == null) {
+            ByteBuffer empty = ByteBuffer.allocateDirect(4);
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, 1, 1, 0,
+                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, empty);
+            return;
+        }
+        mHeatmapFrame.position(0);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, mHeatmap.grid.width, mHeatmap.grid.height, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, mHeatmapFrame);
+    }
+
+
+    /**
+     * Replaces the marker on the overlay. GL thread only, use postMarker() from the UI. */
     public void drawPointOnBitmap(float x, float y) {
+        mHasMarker = true;
+        mMarkerX = x;
+        mMarkerY = y;
         overlay.eraseColor(Color.TRANSPARENT);
         paint.setStyle(Paint.Style.FILL);
         paint.setColor(Color.WHITE);
-        Overlay.drawCircle(x, y, 7, paint);
+        // Coordinates are in pWidth by pHeight, the bitmap may be smaller.
+        Overlay.drawCircle(x * mOverlayScale, y * mOverlayScale, 7 * mOverlayScale, paint);
+        mOverlayDirty = true;
     }
 }
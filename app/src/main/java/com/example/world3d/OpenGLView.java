@@ -2,25 +2,39 @@ package com.example.world3d;
 
 import android.content.Context;
 import android.opengl.GLSurfaceView;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.SystemClock;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.view.MotionEvent;
 
-public class OpenGLView extends GLSurfaceView {
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public class OpenGLView extends GLSurfaceView implements TouchInputProcessor.Listener {
 
     // Use this to show variable in bottom textView:
     // MainActivity.getInstance().setText(String.valueOf(variable));
 
-    // Variables for touch interaction
-    private float touchX = 0;
-    private float touchY = 0;
-    private float lastTouchDistance;
-    private float touchDir;
-    private float sizeCoef = 1;
-    private boolean ignoreOnce = false; // Ignore movement measurement once after releasing second finger
-    private boolean movementDetected = false; // Don't calculate touch coordinates if movement detected before
+    // Turns touch samples into drag, fling, zoom and tap callbacks below
+    private final TouchInputProcessor processor = new TouchInputProcessor(this);
+    // Receives live touch samples, the processor itself or a recorder in front of it
+    private TouchSink input = processor;
+    // Set while touch input is recorded
+    private InputTrace.Writer recorder;
+    // Set while a recorded trace is replayed
+    private TraceReplayer replayer;
+
+    // Finds the map position under a tap
+    private final GlobePicker picker = new GlobePicker();
 
     OpenGLRenderer renderer;
 
+    // Passes thermal status changes on to the quality governor, Android 10 and later
+    private PowerManager.OnThermalStatusChangedListener thermalListener;
+
     public OpenGLView(Context context) {
         super(context);
         init();
@@ -37,99 +51,161 @@ public class OpenGLView extends GLSurfaceView {
         setRenderer(renderer = new OpenGLRenderer( this));
     }
 
+    @Override
+    public void onResume() {
+        super.onResume();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            PowerManager powerManager = (PowerManager) getContext().getSystemService(Context.POWER_SERVICE);
+            thermalListener = new PowerManager.OnThermalStatusChangedListener() {
+                @Override
+                public void onThermalStatusChanged(int status) {
+                    renderer.governor.setThermalStatus(status);
+                }
+            };
+            renderer.governor.setThermalStatus(powerManager.getCurrentThermalStatus());
+            powerManager.addThermalStatusListener(thermalListener);
+        }
+    }
+
+    @Override
+    public void onPause() {
+        if (thermalListener != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            PowerManager powerManager = (PowerManager) getContext().getSystemService(Context.POWER_SERVICE);
+            powerManager.removeThermalStatusListener(thermalListener);
+            thermalListener = null;
+        }
+        super.onPause();
+        renderer.onPause();
+    }
+
+    /**
+     * Records all touch input from now on, for replay with replay() or the headless replay on the JVM.
+     * @param out Stream the trace is written to, closed by stopRecording(). */
+    public void startRecording(OutputStream out) throws IOException {
+        stopRecording();
+        recorder = new InputTrace.Writer(out, processor);
+        input = recorder;
+    }
+
+    /** Finishes the recording started by startRecording(), if any. */
+    public void stopRecording() throws IOException {
+        if (recorder != null) {
+            InputTrace.Writer finished = recorder;
+            recorder = null;
+            input = processor;
+            finished.close();
+        }
+    }
+
+    /**
+     * Replays a recorded trace in real time through the same input processing as live touches.
+     * Live touches are ignored until the trace ends.
+     * @param in Trace written by startRecording(), closed when the replay ends. */
+    public void replay(InputStream in) throws IOException {
+        stopReplay();
+        replayer = new TraceReplayer(new InputTrace.Reader(in));
+        post(replayer);
+    }
+
+    /** Stops a running replay. */
+    public void stopReplay() {
+        if (replayer != null) {
+            removeCallbacks(replayer);
+            replayer.finish();
+        }
+    }
+
+    /**
+     * Dispatches the records of a trace when they are due, relative to when the replay started. */
+    private class TraceReplayer implements Runnable {
+        private final InputTrace.Reader reader;
+        private boolean started = false;
+        private long offset;
+        private long startTime;
+
+        TraceReplayer(InputTrace.Reader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public void run() {
+            try {
+                long now = SystemClock.uptimeMillis();
+                if (!started) {
+                    started = true;
+                    startTime = now;
+                    if (!reader.next()) {
+                        finish();
+                        return;
+                    }
+                    offset = now - reader.time;
+                }
+                while (reader.time + offset <= now) {
+                    reader.dispatch(processor);
+                    if (!reader.next()) {
+                        Log.d("OpenGLView", "Replay finished in " + (SystemClock.uptimeMillis() - startTime) + " ms");
+                        finish();
+                        return;
+                    }
+                }
+                postDelayed(this, reader.time + offset - now);
+            } catch (IOException e) {
+                e.printStackTrace();
+                finish();
+            }
+        }
+
+        void finish() {
+            if (replayer == this) {
+                replayer = null;
+            }
+            try {
+                reader.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     @Override
     public boolean onTouchEvent(MotionEvent event) {
+        if (replayer != null) {
+            return true;
+        }
         int points = event.getPointerCount();
         final int action = event.getAction();
-        float touchDistance;
         switch (action & MotionEvent.ACTION_MASK) {
             case MotionEvent.ACTION_DOWN: { // One finger down
-                touchX = event.getX();
-                touchY = event.getY();
+                input.onDown(event.getEventTime(), event.getX(), event.getY());
             }
             break;
             case MotionEvent.ACTION_POINTER_DOWN: { // Other finger down
-                movementDetected = true;
-                touchDistance = getTouchedDistance(event);
-                lastTouchDistance = touchDistance;
+                input.onPointerDown(event.getX(0), event.getY(0), event.getX(1), event.getY(1));
             }
             break;
             case MotionEvent.ACTION_MOVE: { // Finger(s) move
-                movementDetected = true;
-                if (points == 1) {
-                    // Calculate movement
-                    if (ignoreOnce) {
-                        ignoreOnce = false;
-                    } else {
-                        renderer.xMovement = (touchX - event.getX()) / 5f * sizeCoef;
-                        renderer.yMovement = (touchY - event.getY()) / 5f * sizeCoef;
-                    }
-                    // Get new reading
-                    touchX = event.getX(0);
-                    touchY = event.getY(0);
-                } else if (points == 2) {
-                    touchDistance = getTouchedDistance(event);
-                    if (touchDistance < lastTouchDistance) {
-                        touchDir = 1;
-                    } else if (touchDistance >= lastTouchDistance) {
-                        touchDir = -1;
-                    }
-                    sizeCoef = Math.max(0.25f, Math.min(1f, sizeCoef + 0.03f * touchDir));
-                    renderer.calculateProjection(renderer.viewportWidth, renderer.viewportHeight, sizeCoef);
-                    lastTouchDistance = touchDistance;
-                    // update firstTouch coordinates
-                    touchX = event.getX(0);
-                    touchY = event.getY(0);
+                // Feed the samples batched since the last event first, then the current one.
+                boolean twoFingers = points >= 2;
+                for (int h = 0; h < event.getHistorySize(); h++) {
+                    input.onMove(event.getHistoricalEventTime(h), points,
+                            event.getHistoricalX(0, h), event.getHistoricalY(0, h),
+                            twoFingers ? event.getHistoricalX(1, h) : 0, twoFingers ? event.getHistoricalY(1, h) : 0);
                 }
+                input.onMove(event.getEventTime(), points, event.getX(0), event.getY(0),
+                        twoFingers ? event.getX(1) : 0, twoFingers ? event.getY(1) : 0);
+                input.onMoveEnd();
             }
             break;
             case MotionEvent.ACTION_POINTER_UP: { // Other finger up
-                ignoreOnce = true;
+                input.onPointerUp();
             }
             break;
-            case MotionEvent.ACTION_UP: {
-                if (!movementDetected) { // Last finger up
-                    try {
-                        float angleX = renderer.xAngle - 90f; // compensation for texture shift
-                        float angleY = -renderer.yAngle;
-
-                        float angleXrad = (float) (angleX * Math.PI / 180);
-                        float angleYrad = (float) (angleY * Math.PI / 180);
-
-                        float[] intersect = intersectionPoint(castRay(touchX, touchY), renderer.eye, renderer.radius);
-                        int touched = Float.compare(intersect[0], Float.NaN);
-
-                        float[] intersectRotated = rotatePoint(intersect, angleXrad, angleYrad);
-
-                        float[] polar = getPolar(intersectRotated[0], intersectRotated[1], intersectRotated[2]);
-
-                        polar[0] += angleXrad;
-                        // Restrict X to 0 - 2*PI radians
-                        polar[0] = (float) ((polar[0] + Math.PI * 2) % (Math.PI * 2));
-                        // Restrict Y to 0 - PI radians
-                        polar[1] = (float) Math.min(Math.PI / 2, Math.max(-Math.PI / 2, polar[1]));
-
-                        // Only draw point if not on poles
-                        if (polar[1] > -Math.PI / 2 + 0.3 && polar[1] < Math.PI / 2 - 0.4) {
-                            float[] mapLoc = new float[2];
-                            mapLoc[0] = (float) (polar[0] / (Math.PI * 2));
-                            mapLoc[1] = (float) ((polar[1] + Math.PI / 2) / Math.PI);
-
-                            renderer.drawPointOnBitmap(mapLoc[0] * renderer.pWidth, mapLoc[1] * renderer.pHeight);
-                        }
-
-                        // Show coordinates if clicked on sphere
-                        if (touched != 0) {
-                            showCoordinates(polar);
-                        } else {
-                            MainActivity.getInstance().setText("");
-                        }
-
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
-                movementDetected = false;
+            case MotionEvent.ACTION_UP: { // Last finger up
+                input.onUp(event.getEventTime(), event.getX(), event.getY());
+            }
+            break;
+            case MotionEvent.ACTION_CANCEL: {
+                input.onCancel();
             }
             break;
             default:
@@ -138,116 +214,53 @@ public class OpenGLView extends GLSurfaceView {
         return true;
     }
 
-    private void showCoordinates(float[] polar) {
-        float[] coordinates = new float[2];
-        coordinates[0] = Math.round((polar[0] - Math.PI) / Math.PI * 180 * 100f) / 100f;
-        coordinates[1] = Math.round(polar[1] / (Math.PI / 2) * 90 * 100f) / 100f;
-        String longitude = (coordinates[0] < 0) ? "°W " : "°E ";
-        String latitude = (coordinates[1] < 0) ? "°N " : "°S ";
-
-        MainActivity.getInstance().setText(String.valueOf(Math.abs(coordinates[0])) + longitude + "; "
-                + String.valueOf(Math.abs(coordinates[1])) + latitude);
-    }
-
-
-    private float[] intersectionPoint(float[] vector, float[] eye, float radius) {
-        float[] origin = {0f, 0f, 5f};
-        float[] intersection = new float[4];
-        float a, b, c, t;
-
-        a = vector[0] * vector[0] + vector[1] * vector[1] + vector[2] * vector[2];
-        b = origin[0] * vector[0] * 2 + origin[1] * vector[1] * 2 + origin[2] * vector[2] * 2;
-        c = origin[0]*origin[0] + origin[1]*origin[1] + origin[2]*origin[2] - radius*radius;
-
-        t = minRoot(a, b, c);
-        intersection[0] = origin[0] + vector[0] * t;
-        intersection[1] = origin[1] + vector[1] * t;
-        intersection[2] = origin[2] + vector[2] * t;
-        intersection[3] = 1.0f;
-        return intersection;
-    }
-
-
-    private float minRoot(float a, float b, float c) {
-        float root1, root2, sqrtD;
-
-        sqrtD = (float) Math.sqrt((b*b) - (4*a*c));
-        root1 = (-b + sqrtD) / (2*a);
-        root2 = (-b - sqrtD) / (2*a);
-
-        return Math.min(root1, root2);
-    }
-
-
-    private float[] getPolar(float x, float y, float z) {
-        float[] polarCoords = new float[2];
-        float h = (float) Math.sqrt(x*x + z*z);
-        float r = renderer.radius;
-        polarCoords[0] = (float) Math.asin(x/h);
-        polarCoords[1] = (float) Math.asin(y/r);
-        return polarCoords;
+    @Override
+    public void onMovement(float xMovement, float yMovement) {
+        renderer.postMovement(xMovement, yMovement);
     }
 
-
-    private float[] castRay(float posX, float posY) throws InterruptedException {
-        float[] pointPosition = new float[4];
-        pointPosition[0] = (2.0f * posX) / renderer.viewportWidth - 1.0f;
-        pointPosition[1] = (2.0f * posY) / renderer.viewportHeight - 1.0f;
-        pointPosition[2] = -1.0f;
-        pointPosition[3] = 1.0f;
-
-        // get touch ray line matrix
-        float[] touchRay = multiplyMat4ByVec4(renderer.mInverseProjectionMatrix, pointPosition);
-        touchRay[2] = -1.0f;
-        touchRay[3] = 0.0f;
-
-        return multiplyMat4ByVec4(renderer.mInverseViewMatrix, touchRay);
+    @Override
+    public void onZoom(float sizeCoef) {
+        renderer.postZoom(sizeCoef);
     }
 
+    @Override
+    public void onTap(float touchX, float touchY) {
+        // Pick against the camera of the last drawn frame, which is what the user tapped on.
+        renderer.camera.update();
+        CameraSnapshot camera = renderer.camera.getFront();
+        if (camera.viewportWidth == 0) {
+            return;
+        }
+        picker.pick(camera, renderer.terrain, renderer.radius, touchX, touchY);
 
-    private float[] rotatePoint(float[] pointV4, float xAngle, float yAngle) {
-//        float cosX = (float) Math.cos(xAngle);
-//        float sinX = (float) Math.sin(xAngle);
-        float cosY = (float) Math.cos(yAngle);
-        float sinY = (float) Math.sin(yAngle);
-
-        float[] rotationMatrixY = {1, 0, 0, 0,
-                0, cosY, -sinY, 0,
-                0, sinY, cosY, 0,
-                0, 0, 0, 1};
-//        float[] rotationMatrix = {cos, -sin, 0, 0,
-//                                  sin, cos, 0, 0,
-//                                  0, 0, 1, 0,
-//                                  0, 0, 0, 1};
-//        float[] rotationMatrixX = {cosX, 0, sinX, 0,
-//                                   0, 1, 0, 0,
-//                                   -sinX, 0, cosX, 0,
-//                                   0, 0, 0, 1};
-//        Log.d("CALC", String.valueOf(pointV4[0]) + " " + String.valueOf(pointV4[1]) + " " + String.valueOf(pointV4[2]));
-//        float[] rotatedPointY = multiplyMat4ByVec4(rotationMatrixY, pointV4);
-//        Log.d("CALC", String.valueOf(rotatedPointY[0]) + " " + String.valueOf(rotatedPointY[1]) + " " + String.valueOf(rotatedPointY[2]));
-//        float[] rotatedPointXY = multiplyMat4ByVec4(rotationMatrixX, rotatedPointY);
-//        Log.d("CALC", String.valueOf(rotatedPointXY[0]) + " " + String.valueOf(rotatedPointXY[1]) + " " + String.valueOf(rotatedPointXY[2]));
-
-        return multiplyMat4ByVec4(rotationMatrixY, pointV4);
-    }
+        // Only draw point if not on poles
+        if (picker.isMarkerAllowed()) {
+            renderer.postMarker(picker.u * renderer.pWidth, picker.v * renderer.pHeight);
+        }
 
+        // Look up the region in the same map layout as the marker
+        RegionRaster regions = renderer.regions;
+        int region = (picker.hit && regions != null) ? regions.regionAt(picker.u, picker.v) : 0;
+        renderer.postHighlight(region);
 
-    private float[] multiplyMat4ByVec4(float[] matrix4, float[] vector4) {
-        float[] returnMatrix = new float[4];
-        returnMatrix[0] = (matrix4[0] * vector4[0]) + (matrix4[1] * vector4[1]) + (matrix4[2] * vector4[2]) + (matrix4[3] * vector4[3]);
-        returnMatrix[1] = (matrix4[4] * vector4[0]) + (matrix4[5] * vector4[1]) + (matrix4[6] * vector4[2]) + (matrix4[7] * vector4[3]);
-        returnMatrix[2] = (matrix4[8] * vector4[0]) + (matrix4[9] * vector4[1]) + (matrix4[10] * vector4[2]) + (matrix4[11] * vector4[3]);
-        returnMatrix[3] = (matrix4[12] * vector4[0]) + (matrix4[13] * vector4[1]) + (matrix4[14] * vector4[2]) + (matrix4[15] * vector4[3]);
-        return returnMatrix;
+        // Show coordinates if clicked on sphere
+        if (picker.hit) {
+            showCoordinates(picker.polar, (region != 0) ? regions.getName(region) : null);
+        } else {
+            MainActivity.getInstance().setText("");
+        }
     }
 
+    private void showCoordinates(float[] polar, String regionName) {
+        float[] coordinates = new float[2];
+        coordinates[0] = Math.round((polar[0] - Math.PI) / Math.PI * 180 * 100f) / 100f;
+        coordinates[1] = Math.round(polar[1] / (Math.PI / 2) * 90 * 100f) / 100f;
+        String longitude = (coordinates[0] < 0) ? "°W " : "°E ";
+        String latitude = (coordinates[1] < 0) ? "°N " : "°S ";
 
-    private float getTouchedDistance(MotionEvent event) {
-        float x1 = event.getX(0);
-        float y1 = event.getY(0);
-        float x2 = event.getX(1);
-        float y2 = event.getY(1);
-        return (float) Math.sqrt(Math.pow(Math.abs(x2 - x1), 2) + Math.pow(Math.abs(y2 - y1), 2));
+        String text = String.valueOf(Math.abs(coordinates[0])) + longitude + "; "
+                + String.valueOf(Math.abs(coordinates[1])) + latitude;
+        MainActivity.getInstance().setText((regionName != null) ? regionName + " - " + text : text);
     }
 }
@@ -0,0 +1,20 @@
+package com.example.world3d;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Provides the frames of a time-series overlay for OverlayPlayback. */
+public interface OverlayFrameSource {
+
+    /** Number of frames in the sequence. Playback loops over them. */
+    int getFrameCount();
+
+    /**
+     * Decodes one equirectangular frame. Called from the playback decoder thread, never from the GL
+     * thread.
+     * @param frame Frame number, 0 - getFrameCount()-1.
+     * @param pixels Buffer to fill from position 0 with width * height premultiplied RGBA pixels,
+     *               in the size given to OverlayPlayback. It held an older frame before. */
+    void decode(int frame, ByteBuffer pixels) throws IOException;
+}
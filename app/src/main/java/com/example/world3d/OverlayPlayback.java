@@ -0,0 +1,246 @@
+package com.example.world3d;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Plays a sequence of overlay frames, such as weather or traffic, over the map. A decoder thread
+ * works a few frames ahead of the playback position into a fixed pool of pixel buffers. The GL
+ * thread uploads decoded frames into a small ring of textures and blends the two frames around the
+ * playback position. The position follows the clock, not the render rate: frames that come due
+ * while the renderer is slow or the decoder is late are skipped and counted as dropped.
+ *
+ * Positions count frames since playback started and keep growing when the sequence loops, so the
+ * decoder and the GL thread never confuse two passes over the same frame. */
+public class OverlayPlayback {
+
+    /** Textures in the GL ring: the two frames being blended and one uploaded ahead. */
+    public static final int RING_SIZE = 3;
+
+    /** Uploads decoded frames into the texture ring. Implemented by the GL side. */
+    public interface Uploader {
+        /**
+         * Replaces the contents of a ring texture. The pixels are only valid during the call.
+         * @param slot Ring texture, 0 - RING_SIZE-1. */
+        void upload(int slot, ByteBuffer pixels);
+    }
+
+    public final int width;
+    public final int height;
+    private final OverlayFrameSource mSource;
+    private final double mFramesPerNano;
+    private final int mLookAhead;
+
+    /** Buffers free for the decoder. Its capacity bounds the memory used by decoded frames. */
+    private final ArrayBlockingQueue<ByteBuffer> mFree;
+    /** Decoded frames by position, waiting for upload. */
+    private final ConcurrentHashMap<Long, ByteBuffer> mDecoded = new ConcurrentHashMap<>();
+    private final Thread mDecoder;
+    private final Object mLock = new Object();
+
+    /** Position the GL thread wants to show, the decoder stays within mLookAhead frames of it. */
+    private volatile long mWanted = 0;
+    /** Set when the decoder has to start over at mWanted, after the ring was lost. */
+    private volatile boolean mRewind = false;
+    private volatile boolean mRunning = true;
+
+    // GL thread only
+    private long mStartNanos = -1;
+    private final long[] mRingPositions = new long[RING_SIZE];
+    private long mDisplayed = -1;
+
+    /** Ring slots to blend between and the weight of slotB, -1 while no frame was uploaded yet. */
+    public int slotA = -1;
+    public int slotB = -1;
+    public float blend = 0;
+    /** Frames shown and frames that came due but were never shown. */
+    public int displayedFrames = 0;
+    public int droppedFrames = 0;
+
+    /**
+     * @param source Frames, decoded on a background thread.
+     * @param width Frame width in pixels.
+     * @param height Frame height in pixels.
+     * @param framesPerSecond Playback rate, independent of the render rate.
+     * @param lookAhead Frames decoded ahead of the playback position, at least 1. */
+    public OverlayPlayback(OverlayFrameSource source, int width, int height, float framesPerSecond, int lookAhead) {
+        this.width = width;
+        this.height = height;
+        mSource = source;
+        mFramesPerNano = framesPerSecond / 1e9;
+        mLookAhead = Math.max(1, lookAhead);
+
+        // One buffer per position of the look-ahead window, including the wanted one.
+        mFree = new ArrayBlockingQueue<>(mLookAhead + 1);
+        for (int i = 0; i <= mLookAhead; i++) {
+            mFree.add(ByteBuffer.allocateDirect(width * height * 4));
+        }
+        clearRing();
+
+        mDecoder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                decodeLoop();
+            }
+        }, "OverlayPlayback");
+        mDecoder.setPriority(Thread.NORM_PRIORITY - 1);
+        mDecoder.start();
+    }
+
+    private void decodeLoop() {
+        long position = 0;
+        try {
+            while (mRunning) {
+                long wanted = mWanted;
+                if (mRewind) {
+                    mRewind = false;
+                    position = wanted;
+                }
+                if (position < wanted) {
+                    // Too late for these, they will be counted as dropped.
+                    position = wanted;
+                }
+                if (position > wanted + mLookAhead) {
+                    synchronized (mLock) {
+                        while (mRunning && !mRewind && mWanted == wanted) {
+                            mLock.wait();
+                        }
+                    }
+                    continue;
+                }
+
+                ByteBuffer buffer = mFree.take();
+                try {
+                    buffer.position(0);
+                    mSource.decode((int) (position % mSource.getFrameCount()), buffer);
+                    buffer.position(0);
+                    ByteBuffer replaced = mDecoded.put(position, buffer);
+                    if (replaced != null) {
+                        // Decoded again after a rewind.
+                        mFree.add(replaced);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    mFree.add(buffer);
+                }
+                position++;
+            }
+        } catch (InterruptedException e) {
+            // Released
+        }
+    }
+
+    /**
+     * Advances playback to a point in time, uploads the frames it needs and picks the two to blend.
+     * Frames that aren't decoded in time are waited for by holding the last shown frames. GL thread
+     * only.
+     * @param nanoTime Current time, e.g. System.nanoTime(). The first call starts playback. */
+    public void update(long nanoTime, Uploader uploader) {
+        if (mStartNanos < 0) {
+            mStartNanos = nanoTime;
+        }
+        double position = (nanoTime - mStartNanos) * mFramesPerNano;
+        long wanted = (long) Math.floor(position);
+        if (wanted != mWanted) {
+            mWanted = wanted;
+            synchronized (mLock) {
+                mLock.notifyAll();
+            }
+        }
+
+        // Frames that came due before they were uploaded will never be shown.
+        for (Iterator<Map.Entry<Long, ByteBuffer>> i = mDecoded.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry<Long, ByteBuffer> entry = i.next();
+            if (entry.getKey() < wanted) {
+                i.remove();
+                mFree.add(entry.getValue());
+            }
+        }
+
+        // Upload in the order frames are needed. Slots outside the window are free once the
+        // wanted frame is in the ring; until then they may hold the frames being shown.
+        for (long needed = wanted; needed < wanted + RING_SIZE; needed++) {
+            if (findSlot(needed) >= 0) {
+                continue;
+            }
+            ByteBuffer pixels = mDecoded.remove(needed);
+            if (pixels == null) {
+                break;
+            }
+            int slot = oldestSlot();
+            uploader.upload(slot, pixels);
+            mRingPositions[slot] = needed;
+            mFree.add(pixels);
+        }
+
+        int current = findSlot(wanted);
+        if (current < 0) {
+            // Late, keep showing what was shown before.
+            return;
+        }
+        int next = findSlot(wanted + 1);
+        slotA = current;
+        slotB = (next >= 0) ? next : current;
+        blend = (next >= 0) ? (float) (position - wanted) : 0;
+        if (wanted != mDisplayed) {
+            if (mDisplayed >= 0 && wanted > mDisplayed + 1) {
+                droppedFrames += wanted - mDisplayed - 1;
+            } else if (mDisplayed < 0) {
+                droppedFrames += wanted;
+            }
+            mDisplayed = wanted;
+            displayedFrames++;
+        }
+    }
+
+    /**
+     * Forgets the texture ring, after the GL context and its textures were lost. Frames that were
+     * already uploaded are decoded again. GL thread only. */
+    public void invalidate() {
+        clearRing();
+        slotA = -1;
+        slotB = -1;
+        mRewind = true;
+        synchronized (mLock) {
+            mLock.notifyAll();
+        }
+    }
+
+    /** Stops the decoder thread. */
+    public void release() {
+        mRunning = false;
+        mDecoder.interrupt();
+    }
+
+    private void clearRing() {
+        for (int i = 0; i < RING_SIZE; i++) {
+            mRingPositions[i] = -1;
+        }
+    }
+
+    private int findSlot(long position) {
+        for (int i = 0; i < RING_SIZE; i++) {
+            if (mRingPositions[i] == position) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the slot holding the oldest frame. Slots are only filled within the window of frames
+     * needed next, so while one is needed, the oldest is outside the window or empty. */
+    private int oldestSlot() {
+        int oldest = 0;
+        for (int i = 1; i < RING_SIZE; i++) {
+            if (mRingPositions[i] < mRingPositions[oldest]) {
+                oldest = i;
+            }
+        }
+        return oldest;
+    }
+}
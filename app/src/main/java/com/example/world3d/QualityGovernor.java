@@ -0,0 +1,151 @@
+package com.example.world3d;
+
+/**
+ * Holds a target frame time by trading detail for speed. Quality comes in levels, each one cheaper
+ * than the one before: lower render scale first, since most devices are fill bound, then a smaller
+ * overlay and a coarser sphere.
+ *
+ * Frames are judged in windows. Two windows in a row with too many late frames, one with mostly late
+ * frames, or severe thermal pressure step one level down. Stepping up needs several calm windows in a
+ * row, and every upgrade that is taken back soon after doubles the calm windows needed for the next
+ * one, so quality settles instead of oscillating at the edge of what the device can do. The windows
+ * right after a change are ignored, they carry the cost of the change itself. Plain Java, GL thread
+ * only unless noted. */
+public class QualityGovernor {
+
+    /** Quality levels, from full quality down. */
+    public static final int[] SPHERE_STEPS = {16, 16, 14, 12, 10, 8};
+    public static final float[] OVERLAY_SCALES = {1f, 1f, 1f, 0.75f, 0.5f, 0.5f};
+    public static final float[] RENDER_SCALES = {1f, 0.85f, 0.7f, 0.7f, 0.6f, 0.5f};
+    public static final int LEVEL_COUNT = SPHERE_STEPS.length;
+
+    /** Same values as PowerManager.THERMAL_STATUS_MODERATE and THERMAL_STATUS_SEVERE. */
+    public static final int THERMAL_STATUS_MODERATE = 2;
+    public static final int THERMAL_STATUS_SEVERE = 3;
+
+    /** Frames judged together. Half a second at 60 fps. */
+    public static final int WINDOW_FRAMES = 30;
+    /** A frame is late when it took this much longer than the target, e.g. a missed vsync. */
+    private static final float LATE_RATIO = 1.25f;
+    /** Share of late frames that makes a window slow. Two slow windows in a row step down. */
+    private static final float SLOW_FRACTION = 0.2f;
+    /** Share of late frames that steps down after a single window. */
+    private static final float VERY_SLOW_FRACTION = 0.5f;
+    /** Share of late frames a window may have at most to count as calm. */
+    private static final float CALM_FRACTION = 0.04f;
+    /** Calm windows needed before an upgrade, before and after any backoff. */
+    private static final int MIN_CALM_WINDOWS = 4;
+    private static final int MAX_CALM_WINDOWS = 128;
+    /** Windows after an upgrade in which a downgrade counts as the upgrade failing. */
+    private static final int PROBE_WINDOWS = 4;
+
+    private final long mLateNanos;
+
+    /** Current level, 0 is full quality. */
+    private int mLevel = 0;
+    private volatile int mThermalStatus = 0;
+
+    private int mWindowFrames = 0;
+    private int mWindowLate = 0;
+    private int mSettleWindows = 0;
+    private int mSlowWindows = 0;
+    private int mCalmWindows = 0;
+    private int mCalmWindowsNeeded = MIN_CALM_WINDOWS;
+    /** Windows judged since the last upgrade, or -1 when the last change wasn't one. */
+    private int mWindowsSinceUpgrade = -1;
+
+    /** Level changes so far. */
+    public int upgrades = 0;
+    public int downgrades = 0;
+
+    /** @param targetMillis Frame time to hold, e.g. 16.6 for 60 fps. */
+    public QualityGovernor(float targetMillis) {
+        mLateNanos = (long) (targetMillis * LATE_RATIO * 1000000);
+    }
+
+    public int getLevel() {
+        return mLevel;
+    }
+
+    public int getSphereStep() {
+        return SPHERE_STEPS[mLevel];
+    }
+
+    public float getOverlayScale() {
+        return OVERLAY_SCALES[mLevel];
+    }
+
+    public float getRenderScale() {
+        return RENDER_SCALES[mLevel];
+    }
+
+    /**
+     * Reports thermal pressure, one of the PowerManager.THERMAL_STATUS_ values. Any thread. From
+     * moderate on quality isn't raised any more, from severe it is lowered like on slow frames. */
+    public void setThermalStatus(int status) {
+        mThermalStatus = status;
+    }
+
+    /**
+     * Accounts for one frame.
+     * @param frameNanos Time between the start of this frame and the start of the previous one.
+     * @return True if the level changed and the renderer has to apply it. */
+    public boolean onFrame(long frameNanos) {
+        if (frameNanos > mLateNanos) {
+            mWindowLate++;
+        }
+        if (++mWindowFrames < WINDOW_FRAMES) {
+            return false;
+        }
+        float late = (float) mWindowLate / mWindowFrames;
+        mWindowFrames = 0;
+        mWindowLate = 0;
+        if (mSettleWindows > 0) {
+            mSettleWindows--;
+            return false;
+        }
+        if (mWindowsSinceUpgrade >= 0 && ++mWindowsSinceUpgrade > PROBE_WINDOWS) {
+            // The upgrade held, the next one goes to another level and starts without backoff.
+            mWindowsSinceUpgrade = -1;
+            mCalmWindowsNeeded = MIN_CALM_WINDOWS;
+        }
+
+        int thermal = mThermalStatus;
+        mSlowWindows = (late > SLOW_FRACTION) ? mSlowWindows + 1 : 0;
+        if (mSlowWindows >= 2 || late > VERY_SLOW_FRACTION || thermal >= THERMAL_STATUS_SEVERE) {
+            mSlowWindows = 0;
+            mCalmWindows = 0;
+            if (mWindowsSinceUpgrade >= 0 && mWindowsSinceUpgrade <= PROBE_WINDOWS) {
+                // The last upgrade didn't hold, wait longer before trying again.
+                mCalmWindowsNeeded = Math.min(MAX_CALM_WINDOWS, mCalmWindowsNeeded * 2);
+            }
+            mWindowsSinceUpgrade = -1;
+            return setLevel(mLevel + 1);
+        }
+        if (late <= CALM_FRACTION && thermal < THERMAL_STATUS_MODERATE) {
+            if (++mCalmWindows >= mCalmWindowsNeeded && mLevel > 0) {
+                mCalmWindows = 0;
+                mWindowsSinceUpgrade = 0;
+                return setLevel(mLevel - 1);
+            }
+            return false;
+        }
+        // Between slow and calm: hold.
+        mCalmWindows = 0;
+        return false;
+    }
+
+    private boolean setLevel(int level) {
+        if (level < 0 || level >= LEVEL_COUNT) {
+            return false;
+        }
+        if (level > mLevel) {
+            downgrades++;
+        } else {
+            upgrades++;
+        }
+        mLevel = level;
+        mSettleWindows = 1;
+        return true;
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.world3d;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Preprocessed map of which country or region covers each texel, in the same equirectangular layout
+ * as the map texture. Every texel holds a 16-bit region ID, 0 meaning no region, so a tap is answered
+ * with one array read instead of point-in-polygon tests. The file is memory-mapped, and its ID grid
+ * doubles as the GL_LUMINANCE_ALPHA texture the shader highlights regions with. */
+public class RegionRaster {
+
+    /** "W3DR" */
+    private static final int MAGIC = 0x57334452;
+    /** Magic, width, height and region count, 4 bytes each. */
+    private static final int HEADER_SIZE = 16;
+    private static final int BYTES_PER_TEXEL = 2;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public final int width;
+    public final int height;
+    /** Little-endian IDs, so each texel uploads as luminance = low byte, alpha = high byte. */
+    private final ByteBuffer mTexels;
+    private final ShortBuffer mIds;
+    private final String[] mNames;
+
+    private RegionRaster(int width, int height, ByteBuffer texels, String[] names) {
+        this.width = width;
+        this.height = height;
+        mTexels = texels;
+        mIds = texels.duplicate().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+        mNames = names;
+    }
+
+    /**
+     * Maps a raster file written by write().
+     * @return The mapped raster. Lookups can be made from any thread. */
+    public static RegionRaster open(File path) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+        try {
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                throw new IOException("Invalid region raster file " + path);
+            }
+            int width = buffer.getInt(4);
+            int height = buffer.getInt(8);
+            int count = buffer.getInt(12);
+            long gridEnd = HEADER_SIZE + (long) width * height * BYTES_PER_TEXEL;
+            // Every name takes at least its 2 byte length.
+            if (width <= 0 || height <= 0 || count < 0 || gridEnd + 2L * count > buffer.limit()) {
+                throw new IOException("Invalid region raster file " + path);
+            }
+
+            // Names are tiny compared to the grid, read them once.
+            String[] names = new String[count];
+            buffer.position((int) gridEnd);
+            try {
+                for (int i = 0; i < count; i++) {
+                    byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+                    buffer.get(bytes);
+                    names[i] = new String(bytes, UTF8);
+                }
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Truncated region raster file " + path, e);
+            }
+
+            buffer.position(HEADER_SIZE);
+            buffer.limit((int) gridEnd);
+            return new RegionRaster(width, height, buffer.slice(), names);
+        } finally {
+            // The mapping stays valid after the channel is closed.
+            file.close();
+        }
+    }
+
+    /**
+     * Writes a raster file through a temporary file, which is renamed into place when complete.
+     * @param ids Region ID per texel, row by row from the north pole.
+     * @param names Region name per ID, names[0] being the name of texels without a region. */
+    public static void write(File path, int width, int height, short[] ids, String[] names) throws IOException {
+        if (ids.length != width * height) {
+            throw new IllegalArgumentException("Expected " + width * height + " IDs, got " + ids.length);
+        }
+        byte[][] encoded = new byte[names.length][];
+        long size = HEADER_SIZE + (long) ids.length * BYTES_PER_TEXEL;
+        for (int i = 0; i < names.length; i++) {
+            encoded[i] = names[i].getBytes(UTF8);
+            size += 2 + encoded[i].length;
+        }
+
+        File temp = new File(path.getPath() + ".tmp");
+        RandomAccessFile file = new RandomAccessFile(temp, "rw");
+        try {
+            file.setLength(size);
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC);
+            buffer.putInt(width);
+            buffer.putInt(height);
+            buffer.putInt(names.length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            for (short id : ids) {
+                buffer.putShort(id);
+            }
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            for (byte[] name : encoded) {
+                buffer.putShort((short) name.length);
+                buffer.put(name);
+            }
+            buffer.force();
+        } finally {
+            file.close();
+        }
+        if (!temp.renameTo(path)) {
+            temp.delete();
+            throw new IOException("Error writing region raster " + path);
+        }
+    }
+
+    /**
+     * Looks up the region at a map position.
+     * @param u Horizontal texture coordinate, wraps around.
+     * @param v Vertical texture coordinate, 0 at the north pole, clamped to the poles.
+     * @return Region ID, 0 if the position belongs to no region. */
+    public int regionAt(float u, float v) {
+        int x = (int) Math.floor(u * width) % width;
+        if (x < 0) {
+            x += width;
+        }
+        int y = Math.max(0, Math.min(height - 1, (int) (v * height)));
+        return mIds.get(y * width + x) & 0xFFFF;
+    }
+
+    /** Returns the name stored for a region ID, or null for IDs the file doesn't name. */
+    public String getName(int id) {
+        return (id >= 0 && id < mNames.length) ? mNames[id] : null;
+    }
+
+    /** Returns the ID grid for glTexImage2D as GL_LUMINANCE_ALPHA / GL_UNSIGNED_BYTE. */
+    public ByteBuffer getTexels() {
+        ByteBuffer texels = mTexels.duplicate();
+        texels.position(0);
+        return texels;
+    }
+}
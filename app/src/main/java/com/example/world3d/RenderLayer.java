@@ -0,0 +1,21 @@
+package com.example.world3d;
+
+/**
+ * Something drawn by the renderer, such as the globe, markers or labels. Layers describe their draws
+ * as DrawCommands and leave the actual GL calls, their order and their batching to RenderQueue. */
+public interface RenderLayer {
+
+    /** Position among blended layers, lower draws first. Opaque draws are ordered by state only. */
+    int getOrder();
+
+    /** Whether there is nothing to draw this frame. Empty layers are skipped without submitting. */
+    boolean isEmpty();
+
+    /**
+     * Returns a number that changes whenever the layer would submit different commands, or commands
+     * it changed. While it stays the same, the commands of the previous submit are drawn again. */
+    int getVersion();
+
+    /** Adds the commands of this layer with RenderQueue.add(). */
+    void submit(RenderQueue queue);
+}
@@ -0,0 +1,291 @@
+package com.example.world3d;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Collects the draw commands of all layers and submits them with as few GL state changes as possible.
+ * Opaque commands are sorted by program, textures and buffers, blended ones keep their layer order and
+ * come last. Adjacent ranges of the same buffers with the same state become a single draw call, and
+ * state that is already set is not set again. Layers are only asked for commands when their version
+ * changed, so a static scene costs no sorting at all. After each render() the public counters hold
+ * what the frame cost. GL thread only. */
+public class RenderQueue {
+
+    /** Texture units available to commands. */
+    public static final int TEXTURE_UNITS = 7;
+    /** The unit executors bind as GL_TEXTURE_CUBE_MAP, all others are GL_TEXTURE_2D. */
+    public static final int CUBEMAP_UNIT = 6;
+
+    public static final int BLEND_OPAQUE = 0;
+    /** Source colors are premultiplied by alpha. */
+    public static final int BLEND_PREMULTIPLIED = 1;
+    public static final int BLEND_ADDITIVE = 2;
+
+    private static final int NONE = -1;
+
+    /** Makes the actual GL calls, so the queue itself stays free of GL. */
+    public interface Executor {
+        /** Binds a program and sets its per-frame uniforms. */
+        void useProgram(int program);
+
+        void bindTexture(int unit, int texture);
+
+        void setBlend(int blend);
+
+        /** Points the vertex attributes at the buffers, null ones are disabled. */
+        void setVertexBuffers(FloatBuffer positions, FloatBuffer textureCoordinates, FloatBuffer colors);
+
+        void drawArrays(int first, int count);
+    }
+
+    /** A layer with the commands of its last submit. */
+    private static class Slot {
+        final RenderLayer layer;
+        final List<DrawCommand> commands = new ArrayList<>();
+        int version;
+        boolean recorded = false;
+        boolean drawn = false;
+
+        Slot(RenderLayer layer) {
+            this.layer = layer;
+        }
+    }
+
+    private static final Comparator<DrawCommand> STATE_ORDER = new Comparator<DrawCommand>() {
+        @Override
+        public int compare(DrawCommand a, DrawCommand b) {
+            boolean aBlended = a.blend != BLEND_OPAQUE;
+            boolean bBlended = b.blend != BLEND_OPAQUE;
+            if (aBlended != bBlended) {
+                return aBlended ? 1 : -1;
+            }
+            if (aBlended) {
+                // Blending depends on what is underneath, keep the order layers asked for.
+                if (a.order != b.order) {
+                    return a.order < b.order ? -1 : 1;
+                }
+                return a.sequence - b.sequence;
+            }
+            if (a.program != b.program) {
+                return a.program < b.program ? -1 : 1;
+            }
+            for (int i = 0; i < TEXTURE_UNITS; i++) {
+                if (a.textures[i] != b.textures[i]) {
+                    return a.textures[i] < b.textures[i] ? -1 : 1;
+                }
+            }
+            int compare = compareBuffers(a.positions, b.positions);
+            if (compare == 0) {
+                compare = compareBuffers(a.textureCoordinates, b.textureCoordinates);
+            }
+            if (compare == 0) {
+                compare = compareBuffers(a.colors, b.colors);
+            }
+            if (compare == 0) {
+                compare = a.first - b.first;
+            }
+            return compare;
+        }
+    };
+
+    private final List<Slot> mSlots = new ArrayList<>();
+    private final ArrayList<DrawCommand> mSorted = new ArrayList<>();
+    private boolean mSortNeeded = true;
+    private Slot mRecording;
+
+    /** GL state left by the last command, NONE where unknown. */
+    private int mProgram = NONE;
+    private final int[] mTextures = new int[TEXTURE_UNITS];
+    private int mBlend = NONE;
+    private boolean mBuffersSet = false;
+    private FloatBuffer mPositions;
+    private FloatBuffer mTextureCoordinates;
+    private FloatBuffer mColors;
+
+    /** Counters of the last render(). */
+    public int drawCalls;
+    public int commands;
+    public int programChanges;
+    public int textureChanges;
+    public int blendChanges;
+    public int bufferChanges;
+    public int layersDrawn;
+    public int layersSkipped;
+    /** Layers that had to submit their commands again. */
+    public int layersSubmitted;
+
+    public RenderQueue() {
+        invalidate();
+    }
+
+    /** Adds a layer, drawn from the next render() on. */
+    public void addLayer(RenderLayer layer) {
+        mSlots.add(new Slot(layer));
+        mSortNeeded = true;
+    }
+
+    public void removeLayer(RenderLayer layer) {
+        for (int i = 0; i < mSlots.size(); i++) {
+            if (mSlots.get(i).layer == layer) {
+                mSlots.remove(i);
+                mSortNeeded = true;
+                return;
+            }
+        }
+    }
+
+    /** Adds a command of the layer being submitted. Only valid inside RenderLayer.submit(). */
+    public void add(DrawCommand command) {
+        if (mRecording == null) {
+            throw new IllegalStateException("Commands can only be added from RenderLayer.submit().");
+        }
+        mRecording.commands.add(command);
+    }
+
+    /**
+     * Forgets all GL state and recorded commands, so every layer submits again. Call after the GL
+     * context was recreated, when all handles and bindings changed. */
+    public void invalidate() {
+        for (Slot slot : mSlots) {
+            slot.recorded = false;
+        }
+        mSortNeeded = true;
+        forgetState();
+    }
+
+    /**
+     * Forgets the GL state left by the last render(), so the next one sets everything again. Call
+     * after making GL calls of your own between two render() calls. */
+    public void forgetState() {
+        mProgram = NONE;
+        for (int i = 0; i < TEXTURE_UNITS; i++) {
+            mTextures[i] = NONE;
+        }
+        mBlend = NONE;
+        mBuffersSet = false;
+    }
+
+    /** Draws all layers that aren't empty. */
+    public void render(Executor executor) {
+        drawCalls = 0;
+        programChanges = 0;
+        textureChanges = 0;
+        blendChanges = 0;
+        bufferChanges = 0;
+        layersDrawn = 0;
+        layersSkipped = 0;
+        layersSubmitted = 0;
+
+        for (Slot slot : mSlots) {
+            if (slot.layer.isEmpty()) {
+                mSortNeeded |= slot.drawn;
+                slot.drawn = false;
+                layersSkipped++;
+                continue;
+            }
+            mSortNeeded |= !slot.drawn;
+            slot.drawn = true;
+            layersDrawn++;
+
+            int version = slot.layer.getVersion();
+            if (!slot.recorded || version != slot.version) {
+                slot.commands.clear();
+                mRecording = slot;
+                try {
+                    slot.layer.submit(this);
+                } finally {
+                    mRecording = null;
+                }
+                slot.version = version;
+                slot.recorded = true;
+                layersSubmitted++;
+                mSortNeeded = true;
+            }
+        }
+
+        if (mSortNeeded) {
+            sort();
+        }
+        commands = mSorted.size();
+
+        // Programs get their per-frame uniforms on bind, so bind each at least once per frame.
+        mProgram = NONE;
+        int i = 0;
+        while (i < mSorted.size()) {
+            DrawCommand command = mSorted.get(i);
+            int count = command.count;
+            int next = i + 1;
+            while (next < mSorted.size() && mSorted.get(next).first == command.first + count
+                    && command.hasSameState(mSorted.get(next))) {
+                count += mSorted.get(next).count;
+                next++;
+            }
+            applyState(command, executor);
+            executor.drawArrays(command.first, count);
+            drawCalls++;
+            i = next;
+        }
+    }
+
+    private void sort() {
+        mSorted.clear();
+        int sequence = 0;
+        for (Slot slot : mSlots) {
+            if (!slot.drawn) {
+                continue;
+            }
+            for (DrawCommand command : slot.commands) {
+                if (command.count <= 0) {
+                    continue;
+                }
+                command.order = slot.layer.getOrder();
+                command.sequence = sequence++;
+                mSorted.add(command);
+            }
+        }
+        Collections.sort(mSorted, STATE_ORDER);
+        mSortNeeded = false;
+    }
+
+    private void applyState(DrawCommand command, Executor executor) {
+        if (command.program != mProgram) {
+            mProgram = command.program;
+            executor.useProgram(mProgram);
+            programChanges++;
+        }
+        for (int unit = 0; unit < TEXTURE_UNITS; unit++) {
+            if (command.textures[unit] != 0 && command.textures[unit] != mTextures[unit]) {
+                mTextures[unit] = command.textures[unit];
+                executor.bindTexture(unit, mTextures[unit]);
+                textureChanges++;
+            }
+        }
+        if (command.blend != mBlend) {
+            mBlend = command.blend;
+            executor.setBlend(mBlend);
+            blendChanges++;
+        }
+        if (!mBuffersSet || command.positions != mPositions || command.textureCoordinates != mTextureCoordinates
+                || command.colors != mColors) {
+            mBuffersSet = true;
+            mPositions = command.positions;
+            mTextureCoordinates = command.textureCoordinates;
+            mColors = command.colors;
+            executor.setVertexBuffers(mPositions, mTextureCoordinates, mColors);
+            bufferChanges++;
+        }
+    }
+
+    private static int compareBuffers(FloatBuffer a, FloatBuffer b) {
+        if (a == b) {
+            return 0;
+        }
+        int hashA = System.identityHashCode(a);
+        int hashB = System.identityHashCode(b);
+        return hashA < hashB ? -1 : (hashA > hashB ? 1 : 0);
+    }
+}
@@ -0,0 +1,327 @@
+package com.example.world3d;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * CPU renderer for headless globe snapshots. It draws the same triangle lists as OpenGLRenderer
+ * with the same pipeline state: back face culling of clockwise triangles, depth test and a white
+ * vertex color. Maps are sampled like either path of the app: the equirectangular map with nearest
+ * filtering and repeat wrapping, or the cube map with linear filtering and edge clamping, looked up
+ * with the model space position. The screen is split into tiles, and tiles are rasterized in
+ * parallel, each one owning its pixels and depth values. */
+public class SoftwareRasterizer {
+
+    /** Tile side in pixels. */
+    private static final int TILE_SIZE = 64;
+    /** Tiles rasterized by one task. */
+    private static final int TILES_PER_TASK = 4;
+
+    public final int width;
+    public final int height;
+    /** Color buffer as ARGB, top row first. */
+    public final int[] pixels;
+    private final float[] mDepth;
+
+    private final int mTilesX;
+    private final int mTilesY;
+    /** Triangle indices per tile, filled by binning before each draw. */
+    private int[][] mBins;
+    private int[] mBinSizes;
+
+    /** Screen space vertices: x, y, z (NDC depth), 1/w, u/w, v/w and the model position over w. */
+    private float[] mScreen = new float[0];
+    private static final int STRIDE = 9;
+
+    /** Texture of the current draw, either an equirectangular map or six cube faces. */
+    private int[] mTexture;
+    private int mTextureWidth;
+    private int mTextureHeight;
+    private int[][] mFaces;
+    private int mFaceSize;
+
+    private final ForkJoinPool mPool;
+
+    public SoftwareRasterizer(int width, int height, int parallelism) {
+        this.width = width;
+        this.height = height;
+        pixels = new int[width * height];
+        mDepth = new float[width * height];
+        mTilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        mTilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        mBins = new int[mTilesX * mTilesY][16];
+        mBinSizes = new int[mTilesX * mTilesY];
+        mPool = new ForkJoinPool(parallelism);
+    }
+
+    /** Same as glClearColor() followed by glClear() of the color and depth buffers. */
+    public void clear(float red, float green, float blue) {
+        int color = 0xff000000 | Math.round(red * 255) << 16 | Math.round(green * 255) << 8 | Math.round(blue * 255);
+        Arrays.fill(pixels, color);
+        Arrays.fill(mDepth, 1f);
+    }
+
+    /**
+     * Draws a triangle list.
+     * @param positions 3 floats per vertex, like Sphere.objectVertex.
+     * @param textures 2 floats per vertex, like Sphere.objectTexture.
+     * @param triangles Number of triangles.
+     * @param mvpMatrix Column major model/view/projection matrix.
+     * @param texture Texture as ARGB, top row first.
+     * @param textureWidth Texture width.
+     * @param textureHeight Texture height. */
+    public void draw(FloatBuffer positions, FloatBuffer textures, int triangles, float[] mvpMatrix,
+                     int[] texture, int textureWidth, int textureHeight) {
+        mTexture = texture;
+        mTextureWidth = textureWidth;
+        mTextureHeight = textureHeight;
+        mFaces = null;
+        transform(positions, textures, triangles * 3, mvpMatrix);
+        bin(triangles);
+        mPool.invoke(new TileTask(0, mTilesX * mTilesY));
+    }
+
+    /**
+     * Draws a triangle list textured from a cube map, looked up with the model space position like
+     * the CUBEMAP path of the globe shader.
+     * @param faces ARGB texels per face, top row first, in the order of GL_TEXTURE_CUBE_MAP_POSITIVE_X
+     *              and the faces following it.
+     * @param faceSize Face width and height. */
+    public void drawCubemap(FloatBuffer positions, FloatBuffer textures, int triangles, float[] mvpMatrix,
+                            int[][] faces, int faceSize) {
+        mTexture = null;
+        mFaces = faces;
+        mFaceSize = faceSize;
+        transform(positions, textures, triangles * 3, mvpMatrix);
+        bin(triangles);
+        mPool.invoke(new TileTask(0, mTilesX * mTilesY));
+    }
+
+    private void transform(FloatBuffer positions, FloatBuffer textures, int vertices, float[] m) {
+        if (mScreen.length < vertices * STRIDE) {
+            mScreen = new float[vertices * STRIDE];
+        }
+        for (int i = 0; i < vertices; i++) {
+            float x = positions.get(i * 3);
+            float y = positions.get(i * 3 + 1);
+            float z = positions.get(i * 3 + 2);
+            float clipX = m[0] * x + m[4] * y + m[8] * z + m[12];
+            float clipY = m[1] * x + m[5] * y + m[9] * z + m[13];
+            float clipZ = m[2] * x + m[6] * y + m[10] * z + m[14];
+            float clipW = m[3] * x + m[7] * y + m[11] * z + m[15];
+            float rw = 1f / clipW;
+
+            // Viewport transform, flipped so row 0 is the top of the image.
+            int o = i * STRIDE;
+            mScreen[o] = (clipX * rw + 1f) * 0.5f * width;
+            mScreen[o + 1] = (1f - clipY * rw) * 0.5f * height;
+            mScreen[o + 2] = clipZ * rw;
+            // Behind the eye, the whole triangle gets rejected during binning.
+            mScreen[o + 3] = clipW > 0 ? rw : Float.NaN;
+            mScreen[o + 4] = textures.get(i * 2) * rw;
+            mScreen[o + 5] = textures.get(i * 2 + 1) * rw;
+            mScreen[o + 6] = x * rw;
+            mScreen[o + 7] = y * rw;
+            mScreen[o + 8] = z * rw;
+        }
+    }
+
+    /**
+     * Culls back faces and sorts the remaining triangles into the tiles their bounds overlap. */
+    private void bin(int triangles) {
+        Arrays.fill(mBinSizes, 0);
+        for (int t = 0; t < triangles; t++) {
+            int a = t * 3 * STRIDE;
+            int b = a + STRIDE;
+            int c = b + STRIDE;
+            if (Float.isNaN(mScreen[a + 3]) || Float.isNaN(mScreen[b + 3]) || Float.isNaN(mScreen[c + 3])) {
+                continue;
+            }
+            // Counter clockwise in GL is clockwise once y points down, which gives a negative area here.
+            float area = (mScreen[b] - mScreen[a]) * (mScreen[c + 1] - mScreen[a + 1])
+                    - (mScreen[c] - mScreen[a]) * (mScreen[b + 1] - mScreen[a + 1]);
+            if (area >= 0) {
+                continue;
+            }
+            int minX = Math.max(0, (int) Math.min(mScreen[a], Math.min(mScreen[b], mScreen[c])) / TILE_SIZE);
+            int maxX = Math.min(mTilesX - 1, (int) Math.max(mScreen[a], Math.max(mScreen[b], mScreen[c])) / TILE_SIZE);
+            int minY = Math.max(0, (int) Math.min(mScreen[a + 1], Math.min(mScreen[b + 1], mScreen[c + 1])) / TILE_SIZE);
+            int maxY = Math.min(mTilesY - 1, (int) Math.max(mScreen[a + 1], Math.max(mScreen[b + 1], mScreen[c + 1])) / TILE_SIZE);
+            for (int y = minY; y <= maxY; y++) {
+                for (int x = minX; x <= maxX; x++) {
+                    int tile = y * mTilesX + x;
+                    if (mBinSizes[tile] == mBins[tile].length) {
+                        mBins[tile] = Arrays.copyOf(mBins[tile], mBins[tile].length * 2);
+                    }
+                    mBins[tile][mBinSizes[tile]++] = t;
+                }
+            }
+        }
+    }
+
+    /**
+     * Picks the cube face a direction points at and its coordinates on that face, following the
+     * major axis rule of the GLES 2 spec.
+     * @param st Receives s and t, both -1 - 1, t = -1 at the top row of the face.
+     * @return Face index in the order of GL_TEXTURE_CUBE_MAP_POSITIVE_X and the faces following it. */
+    static int cubeFace(float x, float y, float z, float[] st) {
+        float ax = Math.abs(x), ay = Math.abs(y), az = Math.abs(z);
+        if (ax >= ay && ax >= az) {
+            st[0] = (x > 0 ? -z : z) / ax;
+            st[1] = -y / ax;
+            return x > 0 ? 0 : 1;
+        }
+        if (ay >= az) {
+            st[0] = x / ay;
+            st[1] = (y > 0 ? z : -z) / ay;
+            return y > 0 ? 2 : 3;
+        }
+        st[0] = (z > 0 ? x : -x) / az;
+        st[1] = -y / az;
+        return z > 0 ? 4 : 5;
+    }
+
+    private class TileTask extends RecursiveAction {
+        private final int from, to;
+        private final float[] st = new float[2];
+
+        TileTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > TILES_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new TileTask(from, middle), new TileTask(middle, to));
+                return;
+            }
+            for (int tile = from; tile < to; tile++) {
+                int tileX = (tile % mTilesX) * TILE_SIZE;
+                int tileY = (tile / mTilesX) * TILE_SIZE;
+                int tileRight = Math.min(width, tileX + TILE_SIZE);
+                int tileBottom = Math.min(height, tileY + TILE_SIZE);
+                for (int i = 0; i < mBinSizes[tile]; i++) {
+                    rasterize(mBins[tile][i], tileX, tileY, tileRight, tileBottom);
+                }
+            }
+        }
+
+        /**
+         * Fills the part of one triangle inside a tile, testing pixel centers with edge functions and
+         * a top-left fill rule so shared edges are drawn exactly once. */
+        private void rasterize(int t, int clipLeft, int clipTop, int clipRight, int clipBottom) {
+            // Swap the second and third vertex so the triangle has positive area.
+            int a = t * 3 * STRIDE;
+            int b = a + 2 * STRIDE;
+            int c = a + STRIDE;
+            float ax = mScreen[a], ay = mScreen[a + 1];
+            float bx = mScreen[b], by = mScreen[b + 1];
+            float cx = mScreen[c], cy = mScreen[c + 1];
+            float area = (bx - ax) * (cy - ay) - (cx - ax) * (by - ay);
+            float rArea = 1f / area;
+
+            int minX = Math.max(clipLeft, (int) Math.floor(Math.min(ax, Math.min(bx, cx))));
+            int maxX = Math.min(clipRight - 1, (int) Math.ceil(Math.max(ax, Math.max(bx, cx))));
+            int minY = Math.max(clipTop, (int) Math.floor(Math.min(ay, Math.min(by, cy))));
+            int maxY = Math.min(clipBottom - 1, (int) Math.ceil(Math.max(ay, Math.max(by, cy))));
+            if (minX > maxX || minY > maxY) {
+                return;
+            }
+
+            // Edge functions, positive inside. Edge i is opposite to vertex i.
+            float e0dx = -(cy - by), e0dy = cx - bx;
+            float e1dx = -(ay - cy), e1dy = ax - cx;
+            float e2dx = -(by - ay), e2dy = bx - ax;
+            boolean e0topLeft = isTopLeft(bx, by, cx, cy);
+            boolean e1topLeft = isTopLeft(cx, cy, ax, ay);
+            boolean e2topLeft = isTopLeft(ax, ay, bx, by);
+
+            float px = minX + 0.5f;
+            float py = minY + 0.5f;
+            float e0row = (px - bx) * e0dx + (py - by) * e0dy;
+            float e1row = (px - cx) * e1dx + (py - cy) * e1dy;
+            float e2row = (px - ax) * e2dx + (py - ay) * e2dy;
+
+            for (int y = minY; y <= maxY; y++) {
+                float e0 = e0row, e1 = e1row, e2 = e2row;
+                int index = y * width + minX;
+                for (int x = minX; x <= maxX; x++, index++) {
+                    if ((e0 > 0 || (e0 == 0 && e0topLeft))
+                            && (e1 > 0 || (e1 == 0 && e1topLeft))
+                            && (e2 > 0 || (e2 == 0 && e2topLeft))) {
+                        float l0 = e0 * rArea, l1 = e1 * rArea, l2 = e2 * rArea;
+                        float z = l0 * mScreen[a + 2] + l1 * mScreen[b + 2] + l2 * mScreen[c + 2];
+                        if (z < mDepth[index] && z >= -1f) {
+                            mDepth[index] = z;
+                            float rw = l0 * mScreen[a + 3] + l1 * mScreen[b + 3] + l2 * mScreen[c + 3];
+                            if (mFaces != null) {
+                                // Only the direction matters, no need to divide by rw.
+                                pixels[index] = sampleCube(
+                                        l0 * mScreen[a + 6] + l1 * mScreen[b + 6] + l2 * mScreen[c + 6],
+                                        l0 * mScreen[a + 7] + l1 * mScreen[b + 7] + l2 * mScreen[c + 7],
+                                        l0 * mScreen[a + 8] + l1 * mScreen[b + 8] + l2 * mScreen[c + 8]);
+                            } else {
+                                float u = (l0 * mScreen[a + 4] + l1 * mScreen[b + 4] + l2 * mScreen[c + 4]) / rw;
+                                float v = (l0 * mScreen[a + 5] + l1 * mScreen[b + 5] + l2 * mScreen[c + 5]) / rw;
+                                pixels[index] = sample(u, v);
+                            }
+                        }
+                    }
+                    e0 += e0dx;
+                    e1 += e1dx;
+                    e2 += e2dx;
+                }
+                e0row += e0dy;
+                e1row += e1dy;
+                e2row += e2dy;
+            }
+        }
+
+        /** GL_NEAREST with GL_REPEAT wrapping. */
+        private int sample(float u, float v) {
+            int x = (int) Math.floor(u * mTextureWidth) % mTextureWidth;
+            int y = (int) Math.floor(v * mTextureHeight) % mTextureHeight;
+            if (x < 0) x += mTextureWidth;
+            if (y < 0) y += mTextureHeight;
+            return mTexture[y * mTextureWidth + x] | 0xff000000;
+        }
+
+        /** GL_LINEAR within one face with GL_CLAMP_TO_EDGE, GLES 2 doesn't filter across faces. */
+        private int sampleCube(float x, float y, float z) {
+            int[] face = mFaces[cubeFace(x, y, z, st)];
+            float s = (st[0] + 1) * 0.5f * mFaceSize - 0.5f;
+            float t = (st[1] + 1) * 0.5f * mFaceSize - 0.5f;
+            int s0 = (int) Math.floor(s);
+            int t0 = (int) Math.floor(t);
+            float fs = s - s0;
+            float ft = t - t0;
+            int left = Math.max(0, Math.min(mFaceSize - 1, s0));
+            int right = Math.max(0, Math.min(mFaceSize - 1, s0 + 1));
+            int top = Math.max(0, Math.min(mFaceSize - 1, t0)) * mFaceSize;
+            int bottom = Math.max(0, Math.min(mFaceSize - 1, t0 + 1)) * mFaceSize;
+
+            int color = 0xff000000;
+            for (int shift = 0; shift < 24; shift += 8) {
+                float upper = (face[top + left] >> shift & 0xff) * (1 - fs) + (face[top + right] >> shift & 0xff) * fs;
+                float lower = (face[bottom + left] >> shift & 0xff) * (1 - fs) + (face[bottom + right] >> shift & 0xff) * fs;
+                color |= Math.round(upper * (1 - ft) + lower * ft) << shift;
+            }
+            return color;
+        }
+    }
+
+    /**
+     * In a y down, positive area triangle a top edge is horizontal and runs to the right, and a left
+     * edge runs up the screen. */
+    private static boolean isTopLeft(float fromX, float fromY, float toX, float toY) {
+        return (fromY == toY && toX > fromX) || toY < fromY;
+    }
+
+    public void release() {
+        mPool.shutdown();
+    }
+}
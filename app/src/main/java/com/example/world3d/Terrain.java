@@ -0,0 +1,243 @@
+package com.example.world3d;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class Terrain {
+
+    /** Number of chunks (and elevation tiles) around the equator and from pole to pole. */
+    public final int tilesX;
+    public final int tilesY;
+
+    /** Radius of the globe at sea level. */
+    public final float radius;
+    /** Radial displacement per meter of elevation. */
+    public final float heightScale;
+
+    /** Quads along a chunk side at detail level 0. Each level doubles it. */
+    private static final int baseSegments = 2;
+    /** Highest detail level. */
+    private static final int maxLod = 3;
+    /** Minimum dot product between chunk center and eye direction for each detail level above 0. */
+    private static final float[] lodFacing = {0.3f, 0.75f, 0.93f};
+
+    private final HeightTileSource mSource;
+    /** Loaded tiles by index, null while not loaded. Arrays keep the per-frame checks free of boxing. */
+    private final AtomicReferenceArray<HeightTile> mTiles;
+    /** 1 for tiles loaded or being loaded, 0 for tiles to request. */
+    private final AtomicIntegerArray mRequestedTiles;
+    /** Tile loads and chunk rebuilds both run here, off the GL thread. */
+    private final ExecutorService mWorker = Executors.newSingleThreadExecutor();
+    private volatile int mMaxHeight = 0;
+
+    /** Meshes in use by the GL thread. */
+    private final TerrainChunk[] mChunks;
+    /** Incremented whenever a chunk in mChunks is replaced. GL thread only. */
+    private int mChunkVersion = 0;
+    /** Meshes finished by the worker and not yet picked up by the GL thread. */
+    private final AtomicReferenceArray<TerrainChunk> mPendingChunks;
+    /** Last key a rebuild was requested for, per chunk. Written by the GL thread only. */
+    private final int[] mRequestedKeys;
+    /** Detail level wanted this frame, per chunk. */
+    private final int[] mLods;
+    private final float[] mChunkCenters;
+
+    /**
+     * @param source Provider of elevation tiles, queried on a background thread.
+     * @param tilesX Number of tiles around the equator.
+     * @param tilesY Number of tiles from pole to pole.
+     * @param radius Radius of the globe at sea level.
+     * @param heightScale Radial displacement per meter of elevation. */
+    public Terrain(HeightTileSource source, int tilesX, int tilesY, float radius, float heightScale) {
+        this.mSource = source;
+        this.tilesX = tilesX;
+        this.tilesY = tilesY;
+        this.radius = radius;
+        this.heightScale = heightScale;
+
+        int count = tilesX * tilesY;
+        mTiles = new AtomicReferenceArray<>(count);
+        mRequestedTiles = new AtomicIntegerArray(count);
+        mChunks = new TerrainChunk[count];
+        mPendingChunks = new AtomicReferenceArray<>(count);
+        mRequestedKeys = new int[count];
+        mLods = new int[count];
+        mChunkCenters = new float[count * 3];
+        Arrays.fill(mRequestedKeys, -1);
+
+        for (int y = 0; y < tilesY; y++) {
+            double phi = (y + 0.5) / tilesY * Math.PI;
+            for (int x = 0; x < tilesX; x++) {
+                double theta = (1 - (x + 0.5) / tilesX) * 2 * Math.PI;
+                int i = (y * tilesX + x) * 3;
+                mChunkCenters[i] = (float) (Math.sin(phi) * Math.cos(theta));
+                mChunkCenters[i + 1] = (float) Math.cos(phi);
+                mChunkCenters[i + 2] = (float) (Math.sin(phi) * Math.sin(theta));
+            }
+        }
+    }
+
+    public int getChunkCount() {
+        return mChunks.length;
+    }
+
+    /**
+     * Returns the mesh of a chunk, or null while its first build is still running. GL thread only. */
+    public TerrainChunk getChunk(int index) {
+        return mChunks[index];
+    }
+
+    /**
+     * Returns a number that changes whenever getChunk() would return a different mesh. GL thread only. */
+    public int getChunkVersion() {
+        return mChunkVersion;
+    }
+
+    /**
+     * Picks detail levels for the given eye position, requests missing tiles and schedules rebuilds
+     * of chunks whose tiles or detail levels changed. Finished rebuilds are swapped in. Call once per
+     * frame from the GL thread.
+     * @param eyeX Eye position in model space.
+     * @param eyeY Eye position in model space.
+     * @param eyeZ Eye position in model space. */
+    public void update(float eyeX, float eyeY, float eyeZ) {
+        float length = (float) Math.sqrt(eyeX * eyeX + eyeY * eyeY + eyeZ * eyeZ);
+        for (int i = 0; i < mLods.length; i++) {
+            float facing = (mChunkCenters[i * 3] * eyeX + mChunkCenters[i * 3 + 1] * eyeY
+                    + mChunkCenters[i * 3 + 2] * eyeZ) / length;
+            int lod = 0;
+            while (lod < maxLod && facing > lodFacing[lod]) {
+                lod++;
+            }
+            mLods[i] = lod;
+            if (lod > 0) {
+                requestTile(i % tilesX, i / tilesX);
+            }
+        }
+
+        for (int y = 0; y < tilesY; y++) {
+            for (int x = 0; x < tilesX; x++) {
+                int i = y * tilesX + x;
+                TerrainChunk finished = mPendingChunks.getAndSet(i, null);
+                if (finished != null) {
+                    mChunks[i] = finished;
+                    mChunkVersion++;
+                }
+
+                int key = chunkKey(x, y);
+                if (key != mRequestedKeys[i]) {
+                    mRequestedKeys[i] = key;
+                    scheduleBuild(x, y, key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Packs everything a chunk mesh depends on into one int: its own detail level, the detail levels
+     * of its four neighbours and whether the four tiles its vertices sample from are loaded. */
+    private int chunkKey(int x, int y) {
+        int key = mLods[y * tilesX + x];
+        key = key << 2 | mLods[y * tilesX + (x + tilesX - 1) % tilesX];
+        key = key << 2 | mLods[y * tilesX + (x + 1) % tilesX];
+        key = key << 2 | (y > 0 ? mLods[(y - 1) * tilesX + x] : 0);
+        key = key << 2 | (y < tilesY - 1 ? mLods[(y + 1) * tilesX + x] : 0);
+        for (int dy = 0; dy <= 1; dy++) {
+            for (int dx = 0; dx <= 1; dx++) {
+                int tileX = (x + dx) % tilesX;
+                int tileY = Math.min(y + dy, tilesY - 1);
+                key = key << 1 | (mTiles.get(tileY * tilesX + tileX) != null ? 1 : 0);
+            }
+        }
+        return key;
+    }
+
+    private void scheduleBuild(final int x, final int y, final int key) {
+        final int i = y * tilesX + x;
+        final int segments = baseSegments << mLods[i];
+        final int[] neighbours = {
+                baseSegments << mLods[y * tilesX + (x + tilesX - 1) % tilesX],
+                baseSegments << mLods[y * tilesX + (x + 1) % tilesX],
+                y > 0 ? baseSegments << mLods[(y - 1) * tilesX + x] : 0,
+                y < tilesY - 1 ? baseSegments << mLods[(y + 1) * tilesX + x] : 0};
+        mWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Skip builds that were superseded while waiting in the queue.
+                if (mRequestedKeys[i] != key) {
+                    return;
+                }
+                mPendingChunks.set(i, new TerrainChunk(Terrain.this, x, y, segments, neighbours, key));
+            }
+        });
+    }
+
+    private void requestTile(final int tileX, final int tileY) {
+        final int index = tileY * tilesX + tileX;
+        if (!mRequestedTiles.compareAndSet(index, 0, 1)) {
+            return;
+        }
+        mWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    HeightTile tile = mSource.load(tileX, tileY);
+                    if (tile != null) {
+                        mMaxHeight = Math.max(mMaxHeight, tile.maxHeight);
+                        mTiles.set(index, tile);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    // Requested again by a later update(). A null tile means there is no data, and is final.
+                    mRequestedTiles.set(index, 0);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the elevation at a texture coordinate, 0 where no tile is loaded. Border samples always
+     * come from the tile to the right of / below the border, so neighbouring chunks agree on them.
+     * Below sea level is clamped to 0.
+     * @param u Texture u, wraps around.
+     * @param v Texture v, 0 at the north pole and 1 at the south pole.
+     * @return Elevation in meters. */
+    public float elevationAt(float u, float v) {
+        u = u - (float) Math.floor(u);
+        if (v <= 0 || v >= 1) {
+            // All pole vertices must land on the same point.
+            u = 0;
+            v = Math.min(1f, Math.max(0f, v));
+        }
+        float x = u * tilesX;
+        float y = v * tilesY;
+        int tileX = Math.min((int) x, tilesX - 1);
+        int tileY = Math.min((int) y, tilesY - 1);
+
+        HeightTile tile = mTiles.get(tileY * tilesX + tileX);
+        if (tile == null) {
+            return 0;
+        }
+        return Math.max(0f, tile.sample(x - tileX, y - tileY));
+    }
+
+    /**
+     * Returns the distance of the displaced surface from the globe center at a texture coordinate. */
+    public float surfaceRadius(float u, float v) {
+        return radius + elevationAt(u, v) * heightScale;
+    }
+
+    /**
+     * Returns the radius of a sphere that encloses all loaded relief. */
+    public float maxRadius() {
+        return radius + mMaxHeight * heightScale;
+    }
+
+    public void release() {
+        mWorker.shutdownNow();
+    }
+}
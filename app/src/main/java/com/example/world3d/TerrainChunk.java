@@ -0,0 +1,146 @@
+package com.example.world3d;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+public class TerrainChunk {
+
+    /** How many bytes per float. */
+    private static final int mBytesPerFloat = 4;
+
+    /** Edge order used for neighbour segment counts. */
+    public static final int LEFT = 0;
+    public static final int RIGHT = 1;
+    public static final int TOP = 2;
+    public static final int BOTTOM = 3;
+
+    public final FloatBuffer objectVertex;
+    public final FloatBuffer objectTexture;
+    public int mTriangles;
+
+    /** Key of the terrain state this mesh was built from. */
+    public final int key;
+
+    private final Terrain mTerrain;
+    private final int mChunkX;
+    private final int mChunkY;
+    private final int mSegments;
+    /** Displaced vertex grid, (mSegments + 1)^2 points of 3 floats, row by row. */
+    private final float[] mGrid;
+
+    /**
+     * Builds the displaced mesh of one terrain chunk. Safe to call off the GL thread.
+     * @param terrain Terrain to sample elevation from.
+     * @param chunkX Chunk column, matches the tile column.
+     * @param chunkY Chunk row, matches the tile row.
+     * @param segments Number of quads along each side of the chunk.
+     * @param neighbourSegments Segment counts of the LEFT, RIGHT, TOP and BOTTOM neighbours. Edges
+     *                          facing a coarser neighbour are snapped onto the neighbour's edge so
+     *                          the borders don't crack.
+     * @param key Key of the terrain state, stored for the caller. */
+    public TerrainChunk(Terrain terrain, int chunkX, int chunkY, int segments, int[] neighbourSegments, int key) {
+        this.mTerrain = terrain;
+        this.mChunkX = chunkX;
+        this.mChunkY = chunkY;
+        this.mSegments = segments;
+        this.key = key;
+
+        mTriangles = segments * segments * 2;
+        int mPoints = 3 * mTriangles;
+        objectVertex = ByteBuffer.allocateDirect(mPoints * 3 * mBytesPerFloat)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        objectTexture = ByteBuffer.allocateDirect(mPoints * 2 * mBytesPerFloat)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+
+        mGrid = new float[(segments + 1) * (segments + 1) * 3];
+        buildGrid();
+        stitch(LEFT, neighbourSegments[LEFT]);
+        stitch(RIGHT, neighbourSegments[RIGHT]);
+        stitch(TOP, neighbourSegments[TOP]);
+        stitch(BOTTOM, neighbourSegments[BOTTOM]);
+        build();
+    }
+
+    private float getU(int a) {
+        return (mChunkX + (float) a / mSegments) / mTerrain.tilesX;
+    }
+
+    private float getV(int b) {
+        return (mChunkY + (float) b / mSegments) / mTerrain.tilesY;
+    }
+
+    private void buildGrid() {
+        // Same parametrisation as Sphere: theta runs against texture u, phi along texture v.
+        for (int b = 0; b <= mSegments; b++) {
+            float v = getV(b);
+            double phi = v * Math.PI;
+            for (int a = 0; a <= mSegments; a++) {
+                float u = getU(a);
+                double theta = (1 - u) * 2 * Math.PI;
+                double r = mTerrain.surfaceRadius(u, v);
+                int i = (b * (mSegments + 1) + a) * 3;
+                mGrid[i] = (float) (r * Math.sin(phi) * Math.cos(theta));
+                mGrid[i + 1] = (float) (r * Math.cos(phi));
+                mGrid[i + 2] = (float) (r * Math.sin(phi) * Math.sin(theta));
+            }
+        }
+    }
+
+    /**
+     * Moves the vertices of one edge onto the straight segments of a coarser neighbour edge. */
+    private void stitch(int edge, int neighbourSegments) {
+        if (neighbourSegments <= 0 || neighbourSegments >= mSegments) {
+            return;
+        }
+        int ratio = mSegments / neighbourSegments;
+        for (int k = 0; k <= mSegments; k++) {
+            int offset = k % ratio;
+            if (offset == 0) {
+                continue;
+            }
+            int from = gridIndex(edge, k - offset);
+            int to = gridIndex(edge, k - offset + ratio);
+            int target = gridIndex(edge, k);
+            float f = (float) offset / ratio;
+            for (int c = 0; c < 3; c++) {
+                mGrid[target + c] = mGrid[from + c] + (mGrid[to + c] - mGrid[from + c]) * f;
+            }
+        }
+    }
+
+    private int gridIndex(int edge, int k) {
+        int a, b;
+        switch (edge) {
+            case LEFT: a = 0; b = k; break;
+            case RIGHT: a = mSegments; b = k; break;
+            case TOP: a = k; b = 0; break;
+            default: a = k; b = mSegments; break;
+        }
+        return (b * (mSegments + 1) + a) * 3;
+    }
+
+    private void build() {
+        // Corners follow the winding of Sphere: A = upper left, B = upper right,
+        // C = lower right, D = lower left, where "left" is the smaller theta (larger u).
+        for (int b = 0; b < mSegments; b++) {
+            for (int a = 0; a < mSegments; a++) {
+                putVertex(a + 1, b);
+                putVertex(a, b + 1);
+                putVertex(a + 1, b + 1);
+
+                putVertex(a + 1, b);
+                putVertex(a, b);
+                putVertex(a, b + 1);
+            }
+        }
+        objectVertex.position(0);
+        objectTexture.position(0);
+    }
+
+    private void putVertex(int a, int b) {
+        int i = (b * (mSegments + 1) + a) * 3;
+        objectVertex.put(mGrid[i]); objectVertex.put(mGrid[i + 1]); objectVertex.put(mGrid[i + 2]);
+        objectTexture.put(getU(a)); objectTexture.put(getV(b));
+    }
+}
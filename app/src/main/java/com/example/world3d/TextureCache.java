@@ -0,0 +1,193 @@
+package com.example.world3d;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Keeps a decoded copy of a drawable in app storage as raw RGBA pixels, so it can be memory-mapped and
+ * handed to glTexImage2D without going through BitmapFactory again. The file is written once per app
+ * version; later starts and EGL context restores only map it. Writing it deletes the files of other
+ * versions. */
+public class TextureCache {
+
+    /** "W3DT" */
+    private static final int MAGIC = 0x57334454;
+    /** Magic, width, height and bytes per pixel, 4 bytes each. */
+    private static final int HEADER_SIZE = 16;
+    private static final int BYTES_PER_PIXEL = 4;
+    private static final String PREFIX = "texture_";
+    private static final String SUFFIX = ".rgba";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** A mapped image, ready to be passed to glTexImage2D as GL_RGBA / GL_UNSIGNED_BYTE. */
+    public static class Image {
+        public final int width;
+        public final int height;
+        public final ByteBuffer pixels;
+
+        Image(int width, int height, ByteBuffer pixels) {
+            this.width = width;
+            this.height = height;
+            this.pixels = pixels;
+        }
+    }
+
+    private final Resources mResources;
+    private final int mResourceId;
+    private final File mFile;
+    private final FutureTask<File> mPrepare;
+    /** Whether the last prepare had to decode the drawable. Used for startup logs. */
+    public volatile boolean decoded = false;
+
+    public TextureCache(Context context, final int resourceId) {
+        mResources = context.getResources();
+        mResourceId = resourceId;
+        mFile = new File(context.getNoBackupFilesDir(), PREFIX + resourceId + versionSuffix());
+        mPrepare = new FutureTask<>(new Callable<File>() {
+            @Override
+            public File call() throws IOException {
+                if (!mFile.exists()) {
+                    write();
+                }
+                return mFile;
+            }
+        });
+    }
+
+    /**
+     * Starts writing the cache file in the background if it doesn't exist yet. Call early, so the
+     * first-run decode overlaps with EGL setup instead of stalling the GL thread. */
+    public void prepareAsync() {
+        new Thread(mPrepare, "TextureCache").start();
+    }
+
+    /**
+     * Maps the cached image, waiting for the cache file to be written if needed.
+     * @return The mapped image. Its pixels stay valid as long as the buffer is referenced. */
+    public Image map() throws IOException {
+        // Runs the preparation on the calling thread if prepareAsync() was never called.
+        mPrepare.run();
+        try {
+            mPrepare.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while preparing texture cache.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error preparing texture cache.", e.getCause());
+        }
+
+        Image image = mapFile();
+        if (image == null) {
+            // Truncated, corrupted or foreign file. Replace it now, the preparation only runs once.
+            mFile.delete();
+            write();
+            image = mapFile();
+            if (image == null) {
+                throw new IOException("Error writing texture cache " + mFile);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Maps the cache file.
+     * @return The mapped image, or null if the file doesn't hold a complete image. */
+    private Image mapFile() throws IOException {
+        if (!mFile.exists()) {
+            return null;
+        }
+        RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            long length = file.length();
+            if (length < HEADER_SIZE) {
+                return null;
+            }
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            int width = buffer.getInt(4);
+            int height = buffer.getInt(8);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(12) != BYTES_PER_PIXEL || width <= 0 || height <= 0
+                    || length != HEADER_SIZE + (long) width * height * BYTES_PER_PIXEL) {
+                return null;
+            }
+            buffer.position(HEADER_SIZE);
+            return new Image(width, height, buffer.slice());
+        } finally {
+            // The mapping stays valid after the channel is closed.
+            file.close();
+        }
+    }
+
+    /**
+     * Decodes the drawable and writes it straight into a mapped temporary file, which is then renamed
+     * into place so a crash never leaves a half written cache. */
+    private void write() throws IOException {
+        decoded = true;
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inScaled = false;   // No pre-scaling
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Bitmap bitmap = BitmapFactory.decodeResource(mResources, mResourceId, options);
+        if (bitmap == null) {
+            throw new IOException("Error decoding texture resource " + mResourceId);
+        }
+
+        File temp = new File(mFile.getPath() + TEMP_SUFFIX);
+        RandomAccessFile file = new RandomAccessFile(temp, "rw");
+        try {
+            long size = HEADER_SIZE + (long) bitmap.getWidth() * bitmap.getHeight() * BYTES_PER_PIXEL;
+            file.setLength(size);
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC);
+            buffer.putInt(bitmap.getWidth());
+            buffer.putInt(bitmap.getHeight());
+            buffer.putInt(BYTES_PER_PIXEL);
+            // ARGB_8888 bitmaps are stored as RGBA bytes, which is what GL_RGBA expects.
+            bitmap.copyPixelsToBuffer(buffer);
+            buffer.force();
+        } finally {
+            file.close();
+            bitmap.recycle();
+        }
+        if (!temp.renameTo(mFile)) {
+            temp.delete();
+            throw new IOException("Error writing texture cache " + mFile);
+        }
+        deleteStaleFiles();
+    }
+
+    private static String versionSuffix() {
+        return "_v" + BuildConfig.VERSION_CODE + SUFFIX;
+    }
+
+    /**
+     * Deletes cache files and leftover temporary files of other app versions, whatever resource ID
+     * they were written for, so storage doesn't grow with every update. Files of this version are
+     * left alone, the other caches may still be writing theirs. */
+    private void deleteStaleFiles() {
+        File[] files = mFile.getParentFile().listFiles();
+        if (files == null) {
+            return;
+        }
+        String current = versionSuffix();
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith(PREFIX) || name.endsWith(current) || name.endsWith(current + TEMP_SUFFIX)) {
+                continue;
+            }
+            if (name.endsWith(SUFFIX) || name.endsWith(SUFFIX + TEMP_SUFFIX)) {
+                file.delete();
+            }
+        }
+    }
+}
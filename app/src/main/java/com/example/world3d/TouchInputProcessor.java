@@ -0,0 +1,156 @@
+package com.example.world3d;
+
+/**
+ * Turns raw touch samples into globe gestures: drag, fling, pinch zoom and tap. OpenGLView feeds it
+ * every sample of a MotionEvent, historical ones included, so flings and pinches depend on the
+ * actual finger path rather than on event timing. Works on primitives only and allocates nothing
+ * per event. */
+public class TouchInputProcessor implements TouchSink {
+
+    public interface Listener {
+        /** Rotation speed for the renderer, in the units of OpenGLRenderer.xMovement / yMovement. */
+        void onMovement(float xMovement, float yMovement);
+
+        /** New zoom factor for GlobeCamera.scale. */
+        void onZoom(float sizeCoef);
+
+        /** Finger lifted without any movement. */
+        void onTap(float x, float y);
+    }
+
+    /** Renderer movement per pixel of finger movement at full zoom out. */
+    public static final float MOVEMENT_PER_PIXEL = 1 / 5f;
+    /** The renderer applies movement once per frame. */
+    public static final float FRAME_TIME_MS = 1000 / 60f;
+    public static final float MIN_ZOOM = 0.25f;
+    public static final float MAX_ZOOM = 1f;
+
+    private final Listener mListener;
+    private final FlingVelocityTracker mVelocityTracker = new FlingVelocityTracker();
+
+    private float touchX = 0;
+    private float touchY = 0;
+    private float lastTouchDistance;
+    private float sizeCoef = 1;
+    private boolean ignoreOnce = false; // Ignore movement measurement once after releasing second finger
+    private boolean movementDetected = false; // Don't calculate touch coordinates if movement detected before
+
+    /** Drag distance and zoom change collected from the samples of the current event. */
+    private float mDragX;
+    private float mDragY;
+    private boolean mDragged;
+    private boolean mZoomed;
+
+    public TouchInputProcessor(Listener listener) {
+        mListener = listener;
+    }
+
+    public float getSizeCoef() {
+        return sizeCoef;
+    }
+
+    /** First finger down. */
+    @Override
+    public void onDown(long time, float x, float y) {
+        touchX = x;
+        touchY = y;
+        mVelocityTracker.clear();
+        mVelocityTracker.addSample(time, x, y);
+    }
+
+    /** Second finger down. */
+    @Override
+    public void onPointerDown(float x0, float y0, float x1, float y1) {
+        movementDetected = true;
+        lastTouchDistance = distance(x0, y0, x1, y1);
+        mVelocityTracker.clear();
+    }
+
+    /**
+     * One sample of a move event. Call for every historical sample in order, then for the current
+     * position, then call onMoveEnd().
+     * @param pointers Number of fingers down.
+     * @param x1 Second finger, ignored with one finger.
+     * @param y1 Second finger, ignored with one finger. */
+    @Override
+    public void onMove(long time, int pointers, float x0, float y0, float x1, float y1) {
+        movementDetected = true;
+        if (pointers == 1) {
+            // Calculate movement
+            if (ignoreOnce) {
+                ignoreOnce = false;
+                mVelocityTracker.clear();
+            } else {
+                mDragX += (touchX - x0) * MOVEMENT_PER_PIXEL * sizeCoef;
+                mDragY += (touchY - y0) * MOVEMENT_PER_PIXEL * sizeCoef;
+                mDragged = true;
+            }
+            mVelocityTracker.addSample(time, x0, y0);
+        } else if (pointers == 2) {
+            // Zoom by how much the fingers actually moved apart.
+            float touchDistance = distance(x0, y0, x1, y1);
+            if (touchDistance > 0 && lastTouchDistance > 0) {
+                float zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, sizeCoef * lastTouchDistance / touchDistance));
+                mZoomed |= zoom != sizeCoef;
+                sizeCoef = zoom;
+            }
+            lastTouchDistance = touchDistance;
+        }
+        // Get new reading
+        touchX = x0;
+        touchY = y0;
+    }
+
+    /** Reports what the samples of one move event added up to. */
+    @Override
+    public void onMoveEnd() {
+        if (mDragged) {
+            mListener.onMovement(mDragX, mDragY);
+        }
+        if (mZoomed) {
+            mListener.onZoom(sizeCoef);
+        }
+        mDragX = 0;
+        mDragY = 0;
+        mDragged = false;
+        mZoomed = false;
+    }
+
+    /** Second finger up. */
+    @Override
+    public void onPointerUp() {
+        ignoreOnce = true;
+    }
+
+    /** Last finger up. Either a tap or the end of a drag, which then continues as a fling. */
+    @Override
+    public void onUp(long time, float x, float y) {
+        if (!movementDetected) {
+            mListener.onTap(touchX, touchY);
+        } else if (!ignoreOnce) {
+            mVelocityTracker.addSample(time, x, y);
+            mVelocityTracker.computeVelocity();
+            // Finger velocity in pixels per frame, turned into the same movement a drag would give.
+            mListener.onMovement(-mVelocityTracker.xVelocity * FRAME_TIME_MS * MOVEMENT_PER_PIXEL * sizeCoef,
+                    -mVelocityTracker.yVelocity * FRAME_TIME_MS * MOVEMENT_PER_PIXEL * sizeCoef);
+        }
+        movementDetected = false;
+        ignoreOnce = false;
+    }
+
+    /** Gesture aborted by the system. */
+    @Override
+    public void onCancel() {
+        movementDetected = false;
+        ignoreOnce = false;
+        mVelocityTracker.clear();
+        mDragX = 0;
+        mDragY = 0;
+        mDragged = false;
+        mZoomed = false;
+    }
+
+    private static float distance(float x0, float y0, float x1, float y1) {
+        return (float) Math.sqrt((x1 - x0) * (x1 - x0) + (y1 - y0) * (y1 - y0));
+    }
+}
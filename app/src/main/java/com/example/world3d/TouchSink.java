@@ -0,0 +1,32 @@
+package com.example.world3d;
+
+/**
+ * Receiver of the raw touch samples OpenGLView extracts from MotionEvents, in the order they
+ * happened. Implemented by TouchInputProcessor and by InputTrace.Writer, which records them. */
+public interface TouchSink {
+
+    /** First finger down. */
+    void onDown(long time, float x, float y);
+
+    /** Second finger down. */
+    void onPointerDown(float x0, float y0, float x1, float y1);
+
+    /**
+     * One sample of a move event, historical samples first, followed by onMoveEnd().
+     * @param pointers Number of fingers down.
+     * @param x1 Second finger, ignored with one finger.
+     * @param y1 Second finger, ignored with one finger. */
+    void onMove(long time, int pointers, float x0, float y0, float x1, float y1);
+
+    /** All samples of a move event were delivered. */
+    void onMoveEnd();
+
+    /** Second finger up. */
+    void onPointerUp();
+
+    /** Last finger up. */
+    void onUp(long time, float x, float y);
+
+    /** Gesture aborted by the system. */
+    void onCancel();
+}
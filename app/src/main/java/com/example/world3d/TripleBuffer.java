@@ -0,0 +1,56 @@
+package com.example.world3d;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free exchange of the latest state between one writer thread and one reader thread. The
+ * writer fills the back slot and publishes it, the reader picks up the newest published slot.
+ * Each side owns one slot and the third one sits in the middle, swapped with a single atomic
+ * operation, so neither side ever waits or sees a slot the other one is writing.
+ * @param <T> Mutable state object, preallocated three times. */
+public class TripleBuffer<T> {
+
+    /** Set in mMiddle when it holds a slot the reader hasn't picked up yet. */
+    private static final int DIRTY = 4;
+    private static final int INDEX_MASK = 3;
+
+    private final Object[] mSlots;
+    private final AtomicInteger mMiddle = new AtomicInteger(1);
+    /** Owned by the writer. */
+    private int mBack = 0;
+    /** Owned by the reader. */
+    private int mFront = 2;
+
+    public TripleBuffer(T first, T second, T third) {
+        mSlots = new Object[] {first, second, third};
+    }
+
+    /**
+     * Returns the slot to fill before publish(). It holds stale data, write every field. Writer only. */
+    @SuppressWarnings("unchecked")
+    public T getBack() {
+        return (T) mSlots[mBack];
+    }
+
+    /** Makes the back slot the newest state. Writer only. */
+    public void publish() {
+        mBack = mMiddle.getAndSet(mBack | DIRTY) & INDEX_MASK;
+    }
+
+    /**
+     * Picks up the newest published state, if there is one. Reader only.
+     * @return Whether getFront() changed. */
+    public boolean update() {
+        if ((mMiddle.get() & DIRTY) == 0) {
+            return false;
+        }
+        mFront = mMiddle.getAndSet(mFront) & INDEX_MASK;
+        return true;
+    }
+
+    /** Returns the state picked up by the last update(). Reader only. */
+    @SuppressWarnings("unchecked")
+    public T getFront() {
+        return (T) mSlots[mFront];
+    }
+}
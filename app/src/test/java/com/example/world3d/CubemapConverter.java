@@ -0,0 +1,178 @@
+package com.example.world3d;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Offline preprocessing for the cube map path of the renderer. Reprojects an equirectangular map into
+ * the six faces of a cube map, with bilinear filtering, all cores working on rows of the faces.
+ * Arguments: equirectangular image, output prefix and optionally the face size. Faces are written as
+ * prefix + "_px.png", "_nx.png", "_py.png", "_ny.png", "_pz.png" and "_nz.png". Without a face size
+ * the faces hold as many texels as the input, so the cube map costs the same memory.
+ *
+ * Faces follow the GL cube map layout, each one seen from the inside of the cube with s growing to the
+ * right and t growing down. Directions are in model space of the sphere: y through the north pole, -x
+ * through longitude 0 and +z through 90 degrees east. */
+public class CubemapConverter {
+
+    /** Face suffixes in the order of GL_TEXTURE_CUBE_MAP_POSITIVE_X and the faces following it. */
+    public static final String[] FACE_NAMES = {"px", "nx", "py", "ny", "pz", "nz"};
+    public static final int FACES = 6;
+
+    /** Rows reprojected by one task. */
+    private static final int ROWS_PER_TASK = 16;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CubemapConverter <map.png> <output prefix> [face size]");
+            return;
+        }
+        BufferedImage image = ImageIO.read(new File(args[0]));
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+        int size = (args.length > 2) ? Integer.parseInt(args[2]) : sameMemoryFaceSize(width, height);
+
+        long start = System.nanoTime();
+        int[][] faces = convert(argb, width, height, size, ForkJoinPool.commonPool());
+        long millis = (System.nanoTime() - start) / 1000000;
+
+        for (int face = 0; face < FACES; face++) {
+            BufferedImage output = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+            output.setRGB(0, 0, size, size, faces[face], 0, size);
+            File file = new File(args[1] + "_" + FACE_NAMES[face] + ".png");
+            if (!ImageIO.write(output, "png", file)) {
+                throw new IOException("No PNG writer for " + file);
+            }
+        }
+        System.out.println("Wrote 6 faces of " + size + "x" + size + " from " + width + "x" + height
+                + " in " + millis + " ms, to " + args[1] + "_*.png");
+    }
+
+    /** Largest face size at which six faces have no more texels than the equirectangular map. */
+    public static int sameMemoryFaceSize(int width, int height) {
+        return (int) Math.floor(Math.sqrt((double) width * height / FACES));
+    }
+
+    /**
+     * Reprojects an equirectangular map into six cube faces.
+     * @param argb Map texels, row by row from the north pole, u = 0 at 180 degrees west.
+     * @param size Face width and height in texels.
+     * @param pool Pool the rows are spread over.
+     * @return ARGB texels per face, row by row, in FACE_NAMES order. */
+    public static int[][] convert(int[] argb, int width, int height, int size, ForkJoinPool pool) {
+        int[][] faces = new int[FACES][size * size];
+        pool.invoke(new FaceTask(argb, width, height, size, faces, 0, FACES * size));
+        return faces;
+    }
+
+    /**
+     * Direction through the center of a face texel, not normalized.
+     * @param s Horizontal face coordinate, -1 at the left edge and 1 at the right one.
+     * @param t Vertical face coordinate, -1 at the top edge and 1 at the bottom one. */
+    static void faceDirection(int face, float s, float t, float[] direction) {
+        switch (face) {
+            case 0: set(direction, 1, -t, -s); break;
+            case 1: set(direction, -1, -t, s); break;
+            case 2: set(direction, s, 1, t); break;
+            case 3: set(direction, s, -1, -t); break;
+            case 4: set(direction, s, -t, 1); break;
+            default: set(direction, -s, -t, -1); break;
+        }
+    }
+
+    /**
+     * Map coordinates of a direction, the inverse of the sphere's vertex layout.
+     * @param uv Receives u and v, both 0 - 1, v = 0 at the north pole. */
+    static void directionToUv(float x, float y, float z, float[] uv) {
+        double length = Math.sqrt(x * x + y * y + z * z);
+        double theta = Math.atan2(z, x);
+        if (theta < 0) {
+            theta += 2 * Math.PI;
+        }
+        uv[0] = (float) (1 - theta / (2 * Math.PI));
+        uv[1] = (float) (Math.acos(Math.max(-1, Math.min(1, y / length))) / Math.PI);
+    }
+
+    /**
+     * Bilinear sample of the map. Wraps around horizontally, the map is continuous at 180 degrees,
+     * and clamps vertically at the poles. */
+    static int sample(int[] argb, int width, int height, float u, float v) {
+        float x = u * width - 0.5f;
+        float y = v * height - 0.5f;
+        int x0 = (int) Math.floor(x);
+        int y0 = (int) Math.floor(y);
+        float fx = x - x0;
+        float fy = y - y0;
+        int left = Math.floorMod(x0, width);
+        int right = Math.floorMod(x0 + 1, width);
+        int top = Math.max(0, Math.min(height - 1, y0)) * width;
+        int bottom = Math.max(0, Math.min(height - 1, y0 + 1)) * width;
+
+        int color = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            float upper = channel(argb[top + left], shift) * (1 - fx) + channel(argb[top + right], shift) * fx;
+            float lower = channel(argb[bottom + left], shift) * (1 - fx) + channel(argb[bottom + right], shift) * fx;
+            int value = Math.round(upper * (1 - fy) + lower * fy);
+            color |= Math.max(0, Math.min(255, value)) << shift;
+        }
+        return color;
+    }
+
+    private static int channel(int color, int shift) {
+        return (color >>> shift) & 0xFF;
+    }
+
+    private static void set(float[] vector, float x, float y, float z) {
+        vector[0] = x;
+        vector[1] = y;
+        vector[2] = z;
+    }
+
+    /** Reprojects a range of rows, counted across all faces, face 0 first. */
+    private static class FaceTask extends RecursiveAction {
+        private final int[] argb;
+        private final int width, height, size;
+        private final int[][] faces;
+        private final int from, to;
+
+        FaceTask(int[] argb, int width, int height, int size, int[][] faces, int from, int to) {
+            this.argb = argb;
+            this.width = width;
+            this.height = height;
+            this.size = size;
+            this.faces = faces;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > ROWS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new FaceTask(argb, width, height, size, faces, from, middle),
+                        new FaceTask(argb, width, height, size, faces, middle, to));
+                return;
+            }
+            float[] direction = new float[3];
+            float[] uv = new float[2];
+            for (int row = from; row < to; row++) {
+                int face = row / size;
+                int y = row % size;
+                int[] texels = faces[face];
+                float t = 2 * (y + 0.5f) / size - 1;
+                for (int x = 0; x < size; x++) {
+                    float s = 2 * (x + 0.5f) / size - 1;
+                    faceDirection(face, s, t, direction);
+                    directionToUv(direction[0], direction[1], direction[2], uv);
+                    texels[y * size + x] = sample(argb, width, height, uv[0], uv[1]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.world3d;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class CubemapConverterTest {
+
+    /** Map whose texels hold their own column in red and their row in green. */
+    private static int[] createGradient(int width, int height) {
+        int[] argb = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                argb[y * width + x] = 0xFF000000 | (x << 16) | (y << 8);
+            }
+        }
+        return argb;
+    }
+
+    @Test
+    public void directionToUv_invertsTheSphereLayout() {
+        Random random = new Random(1);
+        float[] uv = new float[2];
+        for (int i = 0; i < 1000; i++) {
+            float u = random.nextFloat();
+            float v = 0.01f + 0.98f * random.nextFloat();
+            // Same layout as Sphere and LabelPlacer.
+            double phi = v * Math.PI;
+            double theta = (1 - u) * 2 * Math.PI;
+            float x = (float) (Math.sin(phi) * Math.cos(theta));
+            float y = (float) Math.cos(phi);
+            float z = (float) (Math.sin(phi) * Math.sin(theta));
+
+            CubemapConverter.directionToUv(3 * x, 3 * y, 3 * z, uv);
+            assertEquals(0, Math.abs(u - uv[0]) % 1, 1e-4f);
+            assertEquals(v, uv[1], 1e-4f);
+        }
+    }
+
+    @Test
+    public void faceCenters_pointAtKnownPlaces() {
+        float[] direction = new float[3];
+        float[] uv = new float[2];
+
+        // -X: longitude 0 on the equator.
+        CubemapConverter.faceDirection(1, 0, 0, direction);
+        CubemapConverter.directionToUv(direction[0], direction[1], direction[2], uv);
+        assertEquals(0.5f, uv[0], 1e-6f);
+        assertEquals(0.5f, uv[1], 1e-6f);
+
+        // +Z: 90 degrees east.
+        CubemapConverter.faceDirection(4, 0, 0, direction);
+        CubemapConverter.directionToUv(direction[0], direction[1], direction[2], uv);
+        assertEquals(0.75f, uv[0], 1e-6f);
+
+        // +Y and -Y: the poles.
+        CubemapConverter.faceDirection(2, 0, 0, direction);
+        CubemapConverter.directionToUv(direction[0], direction[1], direction[2], uv);
+        assertEquals(0f, uv[1], 1e-6f);
+        CubemapConverter.faceDirection(3, 0, 0, direction);
+        CubemapConverter.directionToUv(direction[0], direction[1], direction[2], uv);
+        assertEquals(1f, uv[1], 1e-6f);
+
+        // The top row of a side face is north of its bottom row.
+        CubemapConverter.faceDirection(4, 0, -0.9f, direction);
+        CubemapConverter.directionToUv(direction[0], direction[1], direction[2], uv);
+        float top = uv[1];
+        CubemapConverter.faceDirection(4, 0, 0.9f, direction);
+        CubemapConverter.directionToUv(direction[0], direction[1], direction[2], uv);
+        assertTrue(top < uv[1]);
+    }
+
+    @Test
+    public void sample_interpolatesAndWrapsAtTheDateLine() {
+        int[] argb = createGradient(8, 4);
+        // Between the centers of columns 2 and 3 and of rows 1 and 2.
+        int color = CubemapConverter.sample(argb, 8, 4, 3f / 8, 2f / 4);
+        assertEquals(0xFF, color >>> 24);
+        assertEquals(3, (color >> 16) & 0xFF);   // 2.5 rounded
+        assertEquals(2, (color >> 8) & 0xFF);    // 1.5 rounded
+
+        // On the date line half of the last column and half of the first.
+        color = CubemapConverter.sample(argb, 8, 4, 0f, 0.125f);
+        assertEquals(4, (color >> 16) & 0xFF);   // (7 + 0) / 2 rounded
+        assertEquals(0, (color >> 8) & 0xFF);
+
+        // Past the pole the top row is repeated.
+        color = CubemapConverter.sample(argb, 8, 4, 0.5f / 8 + 1f / 8, 0f);
+        assertEquals(1, (color >> 16) & 0xFF);
+        assertEquals(0, (color >> 8) & 0xFF);
+    }
+
+    @Test
+    public void convert_keepsAUniformMapUniform() {
+        int[] argb = new int[64 * 32];
+        Arrays.fill(argb, 0xFF336699);
+        int[][] faces = CubemapConverter.convert(argb, 64, 32, 16, ForkJoinPool.commonPool());
+        assertEquals(CubemapConverter.FACES, faces.length);
+        for (int[] face : faces) {
+            assertEquals(16 * 16, face.length);
+            for (int texel : face) {
+                assertEquals(0xFF336699, texel);
+            }
+        }
+    }
+
+    @Test
+    public void convert_matchesOnOneThreadAndMany() {
+        int[] argb = createGradient(256, 128);
+        int[][] single = CubemapConverter.convert(argb, 256, 128, 45, new ForkJoinPool(1));
+        int[][] parallel = CubemapConverter.convert(argb, 256, 128, 45, new ForkJoinPool(4));
+        for (int face = 0; face < CubemapConverter.FACES; face++) {
+            assertArrayEquals(single[face], parallel[face]);
+        }
+
+        // The center of -X shows longitude 0 on the equator, between columns 127 and 128.
+        int center = single[1][22 * 45 + 22];
+        assertEquals(128, (center >> 16) & 0xFF, 1);
+        assertEquals(64, (center >> 8) & 0xFF, 1);
+    }
+
+    @Test
+    public void sameMemoryFaceSize_neverExceedsTheMap() {
+        assertEquals(554, CubemapConverter.sameMemoryFaceSize(1920, 960));
+        assertTrue(6 * 554 * 554 <= 1920 * 960);
+        assertTrue(6 * 555 * 555 > 1920 * 960);
+    }
+}
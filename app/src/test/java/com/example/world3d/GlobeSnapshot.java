@@ -0,0 +1,132 @@
+package com.example.world3d;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Headless globe snapshots for machines without a GPU. Renders the same Sphere, camera and map as
+ * the app with SoftwareRasterizer and writes a PNG. The map is the cube map or the equirectangular
+ * one, whichever OpenGLRenderer.USE_CUBEMAP makes the app use.
+ * Arguments: output file, width, height, xAngle, yAngle, zoom scale, all but the first optional.
+ * With "--bench" as the first argument it reports 1080p throughput instead. */
+public class GlobeSnapshot {
+
+    /** Map texture as seen from the app module directory, where Gradle runs unit tests. */
+    public static final String MAP_PATH = "src/main/res/drawable/map_world.png";
+    /** Cube faces are next to it, with CubemapConverter.FACE_NAMES appended. */
+    public static final String FACE_PATH_PREFIX = "src/main/res/drawable/map_world_";
+
+    private final SoftwareRasterizer mRasterizer;
+    private final Sphere mSphere;
+    private final int[] mTexture;
+    private final int mTextureWidth;
+    private final int mTextureHeight;
+    private final int[][] mFaces;
+    private final int mFaceSize;
+    public final GlobeCamera camera = new GlobeCamera();
+
+    /**
+     * Snapshots of the equirectangular path. */
+    public GlobeSnapshot(int width, int height, int threads, BufferedImage map) {
+        mSphere = new Sphere(2f, 16); // radius and sphereStep of OpenGLRenderer
+        mRasterizer = new SoftwareRasterizer(width, height, threads);
+        mTextureWidth = map.getWidth();
+        mTextureHeight = map.getHeight();
+        mTexture = map.getRGB(0, 0, mTextureWidth, mTextureHeight, null, 0, mTextureWidth);
+        mFaces = null;
+        mFaceSize = 0;
+    }
+
+    /**
+     * Snapshots of the cube map path.
+     * @param faces Square faces of equal size, in CubemapConverter.FACE_NAMES order. */
+    public GlobeSnapshot(int width, int height, int threads, BufferedImage[] faces) {
+        mSphere = new Sphere(2f, 16);
+        mRasterizer = new SoftwareRasterizer(width, height, threads);
+        mTexture = null;
+        mTextureWidth = 0;
+        mTextureHeight = 0;
+        mFaceSize = faces[0].getWidth();
+        mFaces = new int[CubemapConverter.FACES][];
+        for (int face = 0; face < CubemapConverter.FACES; face++) {
+            mFaces[face] = faces[face].getRGB(0, 0, mFaceSize, mFaceSize, null, 0, mFaceSize);
+        }
+    }
+
+    /**
+     * Snapshots of the path the app uses, with the maps it ships. */
+    public static GlobeSnapshot forApp(int width, int height, int threads) throws IOException {
+        if (OpenGLRenderer.USE_CUBEMAP) {
+            return new GlobeSnapshot(width, height, threads, readFaces());
+        }
+        return new GlobeSnapshot(width, height, threads, ImageIO.read(new File(MAP_PATH)));
+    }
+
+    /** Reads the cube faces the app ships, in CubemapConverter.FACE_NAMES order. */
+    public static BufferedImage[] readFaces() throws IOException {
+        BufferedImage[] faces = new BufferedImage[CubemapConverter.FACES];
+        for (int face = 0; face < CubemapConverter.FACES; face++) {
+            faces[face] = ImageIO.read(new File(FACE_PATH_PREFIX + CubemapConverter.FACE_NAMES[face] + ".png"));
+        }
+        return faces;
+    }
+
+    public int[] render() {
+        // Same clear color as OpenGLRenderer.onSurfaceCreated()
+        mRasterizer.clear(0.2f, 0.2f, 0.2f);
+        float[] mvp = camera.update(mRasterizer.width, mRasterizer.height);
+        if (mFaces != null) {
+            mRasterizer.drawCubemap(mSphere.objectVertex, mSphere.objectTexture, mSphere.mTriangles, mvp,
+                    mFaces, mFaceSize);
+        } else {
+            mRasterizer.draw(mSphere.objectVertex, mSphere.objectTexture, mSphere.mTriangles, mvp,
+                    mTexture, mTextureWidth, mTextureHeight);
+        }
+        return mRasterizer.pixels;
+    }
+
+    public void write(File file) throws IOException {
+        BufferedImage image = new BufferedImage(mRasterizer.width, mRasterizer.height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, mRasterizer.width, mRasterizer.height, mRasterizer.pixels, 0, mRasterizer.width);
+        ImageIO.write(image, "png", file);
+    }
+
+    public void release() {
+        mRasterizer.release();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        if (args.length > 0 && args[0].equals("--bench")) {
+            int frames = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+            GlobeSnapshot snapshot = forApp(1920, 1080, threads);
+            for (int i = 0; i < frames / 4; i++) {
+                snapshot.render();
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < frames; i++) {
+                snapshot.camera.xAngle = i * 1.8f;
+                snapshot.render();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("1920x1080, %d threads: %.1f images/s%n", threads, frames / seconds);
+            snapshot.release();
+            return;
+        }
+
+        String output = args.length > 0 ? args[0] : "globe.png";
+        int width = args.length > 2 ? Integer.parseInt(args[1]) : 1920;
+        int height = args.length > 2 ? Integer.parseInt(args[2]) : 1080;
+        GlobeSnapshot snapshot = forApp(width, height, threads);
+        if (args.length > 3) snapshot.camera.xAngle = Float.parseFloat(args[3]);
+        if (args.length > 4) snapshot.camera.yAngle = Float.parseFloat(args[4]);
+        if (args.length > 5) snapshot.camera.scale = Float.parseFloat(args[5]);
+        snapshot.render();
+        snapshot.write(new File(output));
+        snapshot.release();
+    }
+}
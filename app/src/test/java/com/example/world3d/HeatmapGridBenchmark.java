@@ -0,0 +1,52 @@
+package com.example.world3d;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Binning and colorizing throughput on the JVM. Run main() from the IDE; not part of the unit tests.
+ * Arguments: sample count (default 4000000) and rounds (default 10). */
+public class HeatmapGridBenchmark {
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 4000000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int width = 1920;
+        int height = 960;
+
+        Random random = new Random(42);
+        float[] lat = new float[count];
+        float[] lon = new float[count];
+        float[] weight = new float[count];
+        for (int i = 0; i < count; i++) {
+            lat[i] = (float) (Math.asin(random.nextFloat() * 2 - 1) * 180 / Math.PI);
+            lon[i] = random.nextFloat() * 360f - 180f;
+            weight[i] = random.nextFloat();
+        }
+        ByteBuffer rgba = ByteBuffer.allocateDirect(width * height * 4);
+
+        for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads *= 2) {
+            HeatmapGrid grid = new HeatmapGrid(width, height, threads);
+            // Warm up
+            grid.add(lat, lon, weight, count);
+            grid.remove(lat, lon, weight, count);
+
+            long binTime = 0;
+            long colorTime = 0;
+            for (int round = 0; round < rounds; round++) {
+                long start = System.nanoTime();
+                grid.add(lat, lon, weight, count);
+                binTime += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                grid.colorize(rgba);
+                colorTime += System.nanoTime() - start;
+
+                grid.remove(lat, lon, weight, count);
+            }
+            System.out.printf("%2d threads: %7.1f M samples/s binned, colorize %6.2f ms%n", threads,
+                    (double) count * rounds / (binTime / 1e9) / 1e6, colorTime / 1e6 / rounds);
+            grid.release();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.world3d;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HeatmapGridTest {
+
+    private static final int WIDTH = 360;
+    private static final int HEIGHT = 180;
+
+    private static float[][] randomSamples(int count, long seed) {
+        Random random = new Random(seed);
+        float[][] samples = new float[3][count];
+        for (int i = 0; i < count; i++) {
+            samples[0][i] = random.nextFloat() * 180f - 90f;
+            samples[1][i] = random.nextFloat() * 360f - 180f;
+            samples[2][i] = random.nextFloat() * 4f;
+        }
+        return samples;
+    }
+
+    @Test
+    public void parallelBinning_matchesSequential() {
+        int count = 200000;
+        float[][] samples = randomSamples(count, 1);
+        HeatmapGrid grid = new HeatmapGrid(WIDTH, HEIGHT, 4);
+        grid.add(samples[0], samples[1], samples[2], count);
+
+        int[] expected = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < count; i++) {
+            expected[grid.cellIndex(samples[0][i], samples[1][i])] += Math.round(samples[2][i] * HeatmapGrid.WEIGHT_SCALE);
+        }
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i] / (float) HeatmapGrid.WEIGHT_SCALE, grid.getCell(i % WIDTH, i / WIDTH), 0f);
+        }
+        grid.release();
+    }
+
+    @Test
+    public void remove_restoresGridExactly() {
+        float[][] kept = randomSamples(50000, 2);
+        float[][] removed = randomSamples(70000, 3);
+        HeatmapGrid grid = new HeatmapGrid(WIDTH, HEIGHT, 3);
+        grid.add(kept[0], kept[1], kept[2], kept[0].length);
+        float[] before = new float[WIDTH * HEIGHT];
+        for (int i = 0; i < before.length; i++) {
+            before[i] = grid.getCell(i % WIDTH, i / WIDTH);
+        }
+
+        grid.add(removed[0], removed[1], removed[2], removed[0].length);
+        grid.remove(removed[0], removed[1], removed[2], removed[0].length);
+        for (int i = 0; i < before.length; i++) {
+            assertEquals(before[i], grid.getCell(i % WIDTH, i / WIDTH), 0f);
+        }
+        grid.release();
+    }
+
+    @Test
+    public void cellIndex_followsTextureLayout() {
+        HeatmapGrid grid = new HeatmapGrid(WIDTH, HEIGHT, 1);
+        // North west corner is the first texel, south east corner the last one.
+        assertEquals(0, grid.cellIndex(90f, -180f));
+        assertEquals(WIDTH * HEIGHT - 1, grid.cellIndex(-89.99f, 179.99f));
+        // Longitude wraps around.
+        assertEquals(grid.cellIndex(10f, -170f), grid.cellIndex(10f, 190f));
+        grid.release();
+    }
+
+    @Test
+    public void colorize_leavesEmptyCellsTransparent() {
+        HeatmapGrid grid = new HeatmapGrid(WIDTH, HEIGHT, 2);
+        grid.add(new float[] {0f}, new float[] {0f}, new float[] {1f}, 1);
+        ByteBuffer rgba = ByteBuffer.allocate(WIDTH * HEIGHT * 4);
+        grid.colorize(rgba);
+
+        int hot = grid.cellIndex(0f, 0f);
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            int alpha = rgba.get(i * 4 + 3) & 0xff;
+            if (i == hot) {
+                assertTrue(alpha > 0);
+            } else {
+                assertEquals(0, alpha);
+            }
+        }
+        grid.release();
+    }
+}
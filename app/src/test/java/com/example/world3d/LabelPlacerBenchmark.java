@@ -0,0 +1,57 @@
+package com.example.world3d;
+
+import java.util.Random;
+
+/**
+ * Label placement time on the JVM while the globe turns. Run main() from the IDE; not part of the
+ * unit tests. Arguments: label count (default 10000) and frames (default 600). */
+public class LabelPlacerBenchmark {
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int frames = args.length > 1 ? Integer.parseInt(args[1]) : 600;
+        int width = 1080;
+        int height = 1920;
+
+        Random random = new Random(42);
+        String[] names = new String[count];
+        float[] lat = new float[count];
+        float[] lon = new float[count];
+        for (int i = 0; i < count; i++) {
+            char[] name = new char[4 + random.nextInt(10)];
+            for (int c = 0; c < name.length; c++) {
+                name[c] = (char) ('A' + random.nextInt(26));
+            }
+            names[i] = new String(name);
+            lat[i] = (float) (Math.asin(random.nextFloat() * 2 - 1) * 180 / Math.PI);
+            lon[i] = random.nextFloat() * 360f - 180f;
+        }
+        LabelPlacer placer = new LabelPlacer(LabelPlacerTest.createAtlas(), names, lat, lon, 2f);
+
+        GlobeCamera camera = new GlobeCamera();
+        float[] inverse = new float[16];
+        long total = 0;
+        long max = 0;
+        int placed = 0;
+        for (int frame = -frames; frame < frames; frame++) {
+            camera.xAngle = frame * 0.5f;
+            camera.scale = 0.4f + 0.6f * (frame & 127) / 127f;
+            float[] mvp = camera.update(width, height);
+            GlobeCamera.invert(inverse, camera.modelMatrix);
+            double angle = -camera.yAngle * Math.PI / 180;
+            float eyeY = (float) Math.sin(angle) * 5f;
+            float eyeZ = (float) Math.cos(angle) * 5f;
+            placer.place(mvp, inverse[4] * eyeY + inverse[8] * eyeZ + inverse[12],
+                    inverse[5] * eyeY + inverse[9] * eyeZ + inverse[13],
+                    inverse[6] * eyeY + inverse[10] * eyeZ + inverse[14], width, height);
+            // The first half warms up the JIT.
+            if (frame >= 0) {
+                total += placer.placeNanos;
+                max = Math.max(max, placer.placeNanos);
+                placed += placer.placed;
+            }
+        }
+        System.out.printf("%d labels: mean %.3f ms, max %.3f ms, %d placed per frame%n", count,
+                total / 1e6 / frames, max / 1e6, placed / frames);
+    }
+}
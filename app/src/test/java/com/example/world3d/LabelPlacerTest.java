@@ -0,0 +1,126 @@
+package com.example.world3d;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LabelPlacerTest {
+
+    /** Viewport of a 1080p phone in portrait. */
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    /** Monospaced capitals and space, 10 by 16 pixels. */
+    static GlyphAtlas createAtlas() {
+        char[] chars = GlyphAtlas.distinctChars(new String[] {" ABCDEFGHIJKLMNOPQRSTUVWXYZ"});
+        float[] advances = new float[chars.length];
+        float[] quads = new float[chars.length * 4];
+        float[] texCoords = new float[chars.length * 4];
+        for (int i = 0; i < chars.length; i++) {
+            advances[i] = 10;
+            quads[i * 4 + 1] = -12;
+            quads[i * 4 + 2] = 10;
+            quads[i * 4 + 3] = 4;
+            texCoords[i * 4] = i / 32f;
+            texCoords[i * 4 + 2] = (i + 1) / 32f;
+            texCoords[i * 4 + 3] = 0.5f;
+        }
+        return new GlyphAtlas(512, 32, 12, 16, null, chars, advances, quads, texCoords);
+    }
+
+    /** Camera in its initial position and the eye in model space. */
+    private final GlobeCamera mCamera = new GlobeCamera();
+    private final float[] mEye = new float[3];
+
+    private float[] updateCamera() {
+        mCamera.update(WIDTH, HEIGHT);
+        float[] inverse = new float[16];
+        GlobeCamera.invert(inverse, mCamera.modelMatrix);
+        double angle = -mCamera.yAngle * Math.PI / 180;
+        float[] eye = {0f, (float) Math.sin(angle) * 5f, (float) Math.cos(angle) * 5f, 1f};
+        for (int row = 0; row < 3; row++) {
+            mEye[row] = inverse[row] * eye[0] + inverse[4 + row] * eye[1] + inverse[8 + row] * eye[2] + inverse[12 + row];
+        }
+        return mCamera.mvpMatrix;
+    }
+
+    /** Latitude and longitude of the point of the globe facing the eye. */
+    private float[] facingPoint() {
+        updateCamera();
+        double length = Math.sqrt(mEye[0] * mEye[0] + mEye[1] * mEye[1] + mEye[2] * mEye[2]);
+        double phi = Math.acos(mEye[1] / length);
+        double theta = Math.atan2(mEye[2], mEye[0]);
+        double u = 1 - theta / (2 * Math.PI);
+        float longitude = (float) (((u * 360 - 180) % 360 + 540) % 360 - 180);
+        return new float[] {(float) (90 - phi * 180 / Math.PI), longitude};
+    }
+
+    private void place(LabelPlacer placer) {
+        float[] mvp = updateCamera();
+        placer.place(mvp, mEye[0], mEye[1], mEye[2], WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void place_centersFacingLabelAndCullsFarSide() {
+        float[] facing = facingPoint();
+        LabelPlacer placer = new LabelPlacer(createAtlas(), new String[] {"NEAR", "FAR"},
+                new float[] {facing[0], -facing[0]}, new float[] {facing[1], facing[1] + 180}, 2f);
+        place(placer);
+
+        assertEquals(1, placer.placed);
+        assertEquals(1, placer.culled);
+        assertEquals(4 * 6, placer.vertexCount);
+
+        // 40 by 16 pixels around the screen center, the anchor projects there.
+        float left = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE;
+        for (int vertex = 0; vertex < placer.vertexCount; vertex++) {
+            left = Math.min(left, placer.positions.get(vertex * 3));
+            right = Math.max(right, placer.positions.get(vertex * 3));
+        }
+        assertEquals(-20f * 2 / WIDTH, left, 2f / WIDTH);
+        assertEquals(20f * 2 / WIDTH, right, 2f / WIDTH);
+    }
+
+    @Test
+    public void place_dropsLabelsOverlappingMoreImportantOnes() {
+        float[] facing = facingPoint();
+        LabelPlacer placer = new LabelPlacer(createAtlas(), new String[] {"FIRST", "SECOND", "THIRD"},
+                new float[] {facing[0], facing[0] + 0.5f, facing[0] - 15},
+                new float[] {facing[1], facing[1], facing[1]}, 2f);
+        place(placer);
+
+        assertEquals(2, placer.placed);
+        assertEquals(1, placer.collided);
+        assertEquals((5 + 5) * 6, placer.vertexCount);
+    }
+
+    @Test
+    public void place_skipsSpacesAndUnknownCharacters() {
+        float[] facing = facingPoint();
+        LabelPlacer placer = new LabelPlacer(createAtlas(), new String[] {"NEW york"},
+                new float[] {facing[0]}, new float[] {facing[1]}, 2f);
+        place(placer);
+
+        assertEquals(1, placer.placed);
+        assertEquals(3 * 6, placer.vertexCount);
+    }
+
+    @Test
+    public void quads_areCounterClockwiseForBackFaceCulling() {
+        float[] facing = facingPoint();
+        LabelPlacer placer = new LabelPlacer(createAtlas(), new String[] {"A"},
+                new float[] {facing[0]}, new float[] {facing[1]}, 2f);
+        place(placer);
+
+        for (int triangle = 0; triangle < placer.vertexCount / 3; triangle++) {
+            float[] p = new float[6];
+            for (int i = 0; i < 3; i++) {
+                p[i * 2] = placer.positions.get((triangle * 3 + i) * 3);
+                p[i * 2 + 1] = placer.positions.get((triangle * 3 + i) * 3 + 1);
+            }
+            float area = (p[2] - p[0]) * (p[5] - p[1]) - (p[4] - p[0]) * (p[3] - p[1]);
+            assertTrue(area > 0);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.world3d;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class OverlayPlaybackTest {
+
+    /** 10 frames per second. */
+    private static final long FRAME_NANOS = 100000000L;
+
+    /** Frames that hold their own index in the first pixel. */
+    private static class CountingSource implements OverlayFrameSource {
+        final int frames;
+        final AtomicInteger decodes = new AtomicInteger();
+
+        CountingSource(int frames) {
+            this.frames = frames;
+        }
+
+        @Override
+        public int getFrameCount() {
+            return frames;
+        }
+
+        @Override
+        public void decode(int frame, ByteBuffer pixels) {
+            decodes.incrementAndGet();
+            pixels.putInt(0, frame);
+        }
+    }
+
+    /** Remembers which frame each ring texture holds. */
+    private static class RecordingUploader implements OverlayPlayback.Uploader {
+        final int[] slots = {-1, -1, -1};
+        int uploads = 0;
+
+        @Override
+        public void upload(int slot, ByteBuffer pixels) {
+            slots[slot] = pixels.getInt(0);
+            uploads++;
+        }
+    }
+
+    private OverlayPlayback playback;
+
+    @After
+    public void release() {
+        if (playback != null) {
+            playback.release();
+        }
+    }
+
+    /** Updates at a fixed time until the decoder caught up and the frame and the next one are shown. */
+    private static void updateUntilShown(OverlayPlayback playback, long time, RecordingUploader uploader,
+                                         int frame, int next) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (playback.slotA < 0 || uploader.slots[playback.slotA] != frame
+                || uploader.slots[playback.slotB] != next) {
+            assertTrue("Frame " + frame + " never shown", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+            playback.update(time, uploader);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void update_showsFramesInOrderAndBlendsToTheNext() throws Exception {
+        CountingSource source = new CountingSource(4);
+        RecordingUploader uploader = new RecordingUploader();
+        playback = new OverlayPlayback(source, 2, 2, 10, 2);
+
+        for (int position = 0; position < 7; position++) {
+            // The sequence loops after its last frame.
+            int frame = position % 4;
+            updateUntilShown(playback, position * FRAME_NANOS, uploader, frame, (position + 1) % 4);
+            assertEquals(0f, playback.blend, 1e-6f);
+
+            playback.update(position * FRAME_NANOS + FRAME_NANOS / 4, uploader);
+            assertEquals(frame, uploader.slots[playback.slotA]);
+            assertEquals(0.25f, playback.blend, 1e-6f);
+        }
+        assertEquals(7, playback.displayedFrames);
+        assertEquals(0, playback.droppedFrames);
+        // Every frame is uploaded once, the ring never holds a frame twice.
+        assertTrue(uploader.uploads <= 7 + 2);
+    }
+
+    @Test(timeout = 10000)
+    public void update_countsFramesThatCameDueWhileLate() throws Exception {
+        CountingSource source = new CountingSource(100);
+        RecordingUploader uploader = new RecordingUploader();
+        playback = new OverlayPlayback(source, 2, 2, 10, 2);
+
+        updateUntilShown(playback, 0, uploader, 0, 1);
+        // A long stall, frames 1 - 4 are skipped.
+        updateUntilShown(playback, 5 * FRAME_NANOS, uploader, 5, 6);
+        assertEquals(2, playback.displayedFrames);
+        assertEquals(4, playback.droppedFrames);
+
+        // Until the decoder catches up, the last frames stay on screen.
+        updateUntilShown(playback, 6 * FRAME_NANOS, uploader, 6, 7);
+        assertEquals(3, playback.displayedFrames);
+        assertEquals(4, playback.droppedFrames);
+    }
+
+    @Test(timeout = 10000)
+    public void decoder_staysWithinLookAhead() throws Exception {
+        CountingSource source = new CountingSource(100);
+        RecordingUploader uploader = new RecordingUploader();
+        playback = new OverlayPlayback(source, 2, 2, 10, 3);
+
+        updateUntilShown(playback, 0, uploader, 0, 1);
+        Thread.sleep(200);
+        playback.update(0, uploader);
+        Thread.sleep(200);
+        // Frames 0 - 3 and nothing further while playback stands still.
+        assertEquals(4, source.decodes.get());
+    }
+
+    @Test(timeout = 10000)
+    public void invalidate_uploadsTheRingAgain() throws Exception {
+        CountingSource source = new CountingSource(100);
+        RecordingUploader uploader = new RecordingUploader();
+        playback = new OverlayPlayback(source, 2, 2, 10, 2);
+
+        updateUntilShown(playback, 0, uploader, 0, 1);
+        updateUntilShown(playback, FRAME_NANOS, uploader, 1, 2);
+        playback.invalidate();
+        assertEquals(-1, playback.slotA);
+
+        int uploads = uploader.uploads;
+        updateUntilShown(playback, FRAME_NANOS, uploader, 1, 2);
+        assertTrue(uploader.uploads > uploads);
+        assertEquals(2, playback.displayedFrames);
+        assertEquals(0, playback.droppedFrames);
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.world3d;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class QualityGovernorTest {
+
+    private static final float TARGET_MILLIS = 16.6f;
+    private static final double VSYNC_MILLIS = 1000.0 / 60;
+
+    /**
+     * Frame times of a vsync limited device: work of a given cost per level, rounded up to whole
+     * vsync intervals, with some jitter. */
+    private static class Device {
+        final double[] costMillis;
+        final double jitterMillis;
+        final Random random = new Random(7);
+
+        Device(double jitterMillis, double... costMillis) {
+            this.costMillis = costMillis;
+            this.jitterMillis = jitterMillis;
+        }
+
+        long frameNanos(int level) {
+            double cost = costMillis[level] + random.nextGaussian() * jitterMillis;
+            double frame = Math.max(1, Math.ceil(cost / VSYNC_MILLIS)) * VSYNC_MILLIS;
+            return (long) (frame * 1000000);
+        }
+    }
+
+    /** Feeds a number of frames and returns how many of them ran at each level. */
+    private static int[] run(QualityGovernor governor, Device device, int frames) {
+        int[] framesPerLevel = new int[QualityGovernor.LEVEL_COUNT];
+        for (int i = 0; i < frames; i++) {
+            framesPerLevel[governor.getLevel()]++;
+            governor.onFrame(device.frameNanos(governor.getLevel()));
+        }
+        return framesPerLevel;
+    }
+
+    @Test
+    public void slowDevice_settlesOnFirstLevelThatHoldsTarget() {
+        QualityGovernor governor = new QualityGovernor(TARGET_MILLIS);
+        Device device = new Device(0.8, 30, 26, 22, 18, 14, 12);
+
+        // 100 seconds at 60 fps.
+        int[] framesPerLevel = run(governor, device, 6000);
+
+        assertEquals(4, governor.getLevel());
+        assertTrue(framesPerLevel[4] > 6000 * 0.8);
+        // Upgrade probes back off: a handful in 100 seconds, not one every few windows.
+        assertTrue("upgrades " + governor.upgrades, governor.upgrades <= 5);
+        assertEquals(4 + governor.upgrades, governor.downgrades);
+    }
+
+    @Test
+    public void fastDevice_neverLeavesFullQuality() {
+        QualityGovernor governor = new QualityGovernor(TARGET_MILLIS);
+        Device device = new Device(1.5, 9, 8, 7, 6, 5, 4);
+
+        run(governor, device, 6000);
+
+        assertEquals(0, governor.getLevel());
+        assertEquals(0, governor.downgrades);
+    }
+
+    @Test
+    public void occasionalLateFrames_doNotChangeLevel() {
+        QualityGovernor governor = new QualityGovernor(TARGET_MILLIS);
+        // Close to the budget, about one frame in ten misses vsync.
+        Device device = new Device(1.0, 15.3, 14, 13, 12, 11, 10);
+
+        run(governor, device, 6000);
+
+        assertEquals(0, governor.downgrades);
+    }
+
+    @Test
+    public void loadSpike_stepsDownAndRecovers() {
+        QualityGovernor governor = new QualityGovernor(TARGET_MILLIS);
+        Device fast = new Device(0.5, 10, 9, 8, 7, 6, 5);
+        Device loaded = new Device(0.5, 40, 36, 30, 26, 24, 20);
+
+        run(governor, fast, 600);
+        run(governor, loaded, 600);
+        assertTrue(governor.getLevel() >= 3);
+
+        run(governor, fast, 3000);
+        assertEquals(0, governor.getLevel());
+    }
+
+    @Test
+    public void thermalPressure_lowersAndHoldsQuality() {
+        QualityGovernor governor = new QualityGovernor(TARGET_MILLIS);
+        Device fast = new Device(0.5, 10, 9, 8, 7, 6, 5);
+
+        governor.setThermalStatus(QualityGovernor.THERMAL_STATUS_SEVERE);
+        run(governor, fast, QualityGovernor.WINDOW_FRAMES * 4);
+        assertEquals(2, governor.getLevel());
+
+        // Moderate pressure stops further steps in either direction.
+        governor.setThermalStatus(QualityGovernor.THERMAL_STATUS_MODERATE);
+        run(governor, fast, 3000);
+        assertEquals(2, governor.getLevel());
+
+        governor.setThermalStatus(0);
+        run(governor, fast, 3000);
+        assertEquals(0, governor.getLevel());
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.world3d;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Offline preprocessing for RegionRaster. Reads a color coded equirectangular image, one flat color
+ * per region, and writes the raster file the app maps. Black or transparent texels belong to no
+ * region. Arguments: image, names file, output file. Each line of the names file is a hex color and
+ * the region name, e.g. "ff0000 France"; unnamed colors are named by their hex value. */
+public class RegionRasterBuilder {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: RegionRasterBuilder <labels.png> <names.txt> <output>");
+            return;
+        }
+        BufferedImage image = ImageIO.read(new File(args[0]));
+        Map<Integer, String> colorNames = readNames(new File(args[1]));
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+        short[] ids = new short[argb.length];
+        Map<Integer, Integer> colorIds = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        names.add("");
+
+        for (int i = 0; i < argb.length; i++) {
+            int color = argb[i] & 0xFFFFFF;
+            if ((argb[i] >>> 24) == 0 || color == 0) {
+                continue;
+            }
+            Integer id = colorIds.get(color);
+            if (id == null) {
+                id = names.size();
+                if (id > 0xFFFF) {
+                    throw new IOException("More than 65535 region colors in " + args[0]);
+                }
+                colorIds.put(color, id);
+                String name = colorNames.get(color);
+                names.add((name != null) ? name : String.format("%06x", color));
+            }
+            ids[i] = (short) (int) id;
+        }
+
+        RegionRaster.write(new File(args[2]), width, height, ids, names.toArray(new String[0]));
+        System.out.println("Wrote " + (names.size() - 1) + " regions, " + width + "x" + height + ", to " + args[2]);
+    }
+
+    private static Map<Integer, String> readNames(File file) throws IOException {
+        Map<Integer, String> names = new HashMap<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                int space = line.indexOf(' ');
+                if (line.isEmpty() || line.startsWith("#") || space < 0) {
+                    continue;
+                }
+                names.put(Integer.parseInt(line.substring(0, space), 16), line.substring(space + 1).trim());
+            }
+        } finally {
+            reader.close();
+        }
+        return names;
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.world3d;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class RegionRasterTest {
+
+    private static final int WIDTH = 5;
+    private static final int HEIGHT = 3;
+
+    /** Region 1 covers the left column, the high ID the middle row, the rest has no region. */
+    private RegionRaster createRaster() throws IOException {
+        short[] ids = new short[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            ids[y * WIDTH] = 1;
+        }
+        for (int x = 1; x < WIDTH; x++) {
+            ids[WIDTH + x] = (short) 0xABCD;
+        }
+        String[] names = new String[0xABCE];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "Region " + i;
+        }
+        names[1] = "Côte d'Ivoire";
+
+        File file = File.createTempFile("regions", ".bin");
+        file.deleteOnExit();
+        RegionRaster.write(file, WIDTH, HEIGHT, ids, names);
+        return RegionRaster.open(file);
+    }
+
+    @Test
+    public void regionAt_matchesWrittenGrid() throws IOException {
+        RegionRaster raster = createRaster();
+        assertEquals(WIDTH, raster.width);
+        assertEquals(HEIGHT, raster.height);
+        assertEquals(1, raster.regionAt(0.1f, 0.1f));
+        assertEquals(0, raster.regionAt(0.5f, 0.1f));
+        assertEquals(0xABCD, raster.regionAt(0.5f, 0.5f));
+        assertEquals("Côte d'Ivoire", raster.getName(1));
+        assertEquals("Region 43981", raster.getName(0xABCD));
+        assertNull(raster.getName(0xABCE));
+    }
+
+    @Test
+    public void regionAt_wrapsLongitudeAndClampsLatitude() throws IOException {
+        RegionRaster raster = createRaster();
+        assertEquals(1, raster.regionAt(1.1f, 0.1f));
+        assertEquals(1, raster.regionAt(-0.9f, 0.5f));
+        assertEquals(0xABCD, raster.regionAt(-0.5f, 0.5f));
+        assertEquals(0, raster.regionAt(0.5f, -1f));
+        assertEquals(0, raster.regionAt(0.5f, 1f));
+    }
+
+    @Test
+    public void texels_holdLowByteThenHighByte() throws IOException {
+        ByteBuffer texels = createRaster().getTexels();
+        assertEquals(WIDTH * HEIGHT * 2, texels.remaining());
+        assertEquals(1, texels.get(0));
+        assertEquals((byte) 0xCD, texels.get((WIDTH + 1) * 2));
+        assertEquals((byte) 0xAB, texels.get((WIDTH + 1) * 2 + 1));
+    }
+
+    /** Expects open() to reject the first bytes of a file with an IOException. */
+    private static void assertRejected(byte[] bytes) throws IOException {
+        File file = File.createTempFile("regions", ".bin");
+        file.deleteOnExit();
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(bytes);
+        } finally {
+            output.close();
+        }
+        try {
+            RegionRaster.open(file);
+            fail("Opened a damaged file of " + bytes.length + " bytes");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void open_rejectsTruncatedAndCorruptFiles() throws IOException {
+        File file = File.createTempFile("regions", ".bin");
+        file.deleteOnExit();
+        RegionRaster.write(file, WIDTH, HEIGHT, new short[WIDTH * HEIGHT], new String[] {"", "Sea"});
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        int gridEnd = 16 + WIDTH * HEIGHT * 2;
+
+        for (int length : new int[] {8, 20, gridEnd, gridEnd + 3, bytes.length - 1}) {
+            assertRejected(Arrays.copyOf(bytes, length));
+        }
+
+        // 65536 x 65536 texels overflow to an empty grid in int math.
+        ByteBuffer header = ByteBuffer.wrap(bytes.clone());
+        header.putInt(4, 0x10000).putInt(8, 0x10000);
+        assertRejected(header.array());
+        header.putInt(4, WIDTH).putInt(8, -HEIGHT);
+        assertRejected(header.array());
+        header.putInt(8, HEIGHT).putInt(12, -1);
+        assertRejected(header.array());
+    }
+}
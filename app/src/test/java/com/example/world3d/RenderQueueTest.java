@@ -0,0 +1,236 @@
+package com.example.world3d;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RenderQueueTest {
+
+    /** Records the calls a frame makes as short strings. */
+    private static class RecordingExecutor implements RenderQueue.Executor {
+        final List<String> calls = new ArrayList<>();
+
+        @Override
+        public void useProgram(int program) {
+            calls.add("program " + program);
+        }
+
+        @Override
+        public void bindTexture(int unit, int texture) {
+            calls.add("texture " + unit + " " + texture);
+        }
+
+        @Override
+        public void setBlend(int blend) {
+            calls.add("blend " + blend);
+        }
+
+        @Override
+        public void setVertexBuffers(FloatBuffer positions, FloatBuffer textureCoordinates, FloatBuffer colors) {
+            calls.add("buffers");
+        }
+
+        @Override
+        public void drawArrays(int first, int count) {
+            calls.add("draw " + first + " " + count);
+        }
+    }
+
+    private static class TestLayer implements RenderLayer {
+        final List<DrawCommand> commands = new ArrayList<>();
+        final int order;
+        boolean empty = false;
+        int version = 0;
+        int submits = 0;
+
+        TestLayer(int order) {
+            this.order = order;
+        }
+
+        DrawCommand add(int program, int texture, FloatBuffer positions, int first, int count, int blend) {
+            DrawCommand command = new DrawCommand();
+            command.program = program;
+            command.textures[0] = texture;
+            command.positions = positions;
+            command.first = first;
+            command.count = count;
+            command.blend = blend;
+            commands.add(command);
+            return command;
+        }
+
+        @Override
+        public int getOrder() {
+            return order;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return empty;
+        }
+
+        @Override
+        public int getVersion() {
+            return version;
+        }
+
+        @Override
+        public void submit(RenderQueue queue) {
+            submits++;
+            for (DrawCommand command : commands) {
+                queue.add(command);
+            }
+        }
+    }
+
+    private final FloatBuffer mBufferA = FloatBuffer.allocate(300);
+    private final FloatBuffer mBufferB = FloatBuffer.allocate(300);
+    private RenderQueue mQueue;
+    private RecordingExecutor mExecutor;
+
+    @Before
+    public void setUp() {
+        mQueue = new RenderQueue();
+        mExecutor = new RecordingExecutor();
+    }
+
+    @Test
+    public void opaqueCommands_areGroupedByState() {
+        TestLayer first = new TestLayer(0);
+        TestLayer second = new TestLayer(0);
+        first.add(1, 10, mBufferA, 0, 3, RenderQueue.BLEND_OPAQUE);
+        second.add(2, 20, mBufferB, 0, 3, RenderQueue.BLEND_OPAQUE);
+        first.add(1, 10, mBufferB, 0, 3, RenderQueue.BLEND_OPAQUE);
+        second.add(2, 20, mBufferA, 0, 3, RenderQueue.BLEND_OPAQUE);
+        first.add(1, 11, mBufferA, 0, 3, RenderQueue.BLEND_OPAQUE);
+        mQueue.addLayer(first);
+        mQueue.addLayer(second);
+
+        mQueue.render(mExecutor);
+
+        assertEquals(5, mQueue.drawCalls);
+        assertEquals(2, mQueue.programChanges);
+        assertEquals(3, mQueue.textureChanges);
+        assertEquals(1, mQueue.blendChanges);
+        // Program 1 with texture 10 draws both of its buffers before moving on.
+        assertEquals("program 1", mExecutor.calls.get(0));
+        assertEquals("texture 0 10", mExecutor.calls.get(1));
+    }
+
+    @Test
+    public void adjacentRanges_areMergedIntoOneDraw() {
+        TestLayer layer = new TestLayer(0);
+        layer.add(1, 10, mBufferA, 6, 6, RenderQueue.BLEND_OPAQUE);
+        layer.add(1, 10, mBufferA, 0, 6, RenderQueue.BLEND_OPAQUE);
+        layer.add(1, 10, mBufferA, 12, 3, RenderQueue.BLEND_OPAQUE);
+        layer.add(1, 10, mBufferA, 30, 3, RenderQueue.BLEND_OPAQUE);
+        layer.add(1, 11, mBufferA, 33, 3, RenderQueue.BLEND_OPAQUE);
+        mQueue.addLayer(layer);
+
+        mQueue.render(mExecutor);
+
+        assertEquals(5, mQueue.commands);
+        assertEquals(3, mQueue.drawCalls);
+        assertTrue(mExecutor.calls.contains("draw 0 15"));
+        assertTrue(mExecutor.calls.contains("draw 30 3"));
+        assertTrue(mExecutor.calls.contains("draw 33 3"));
+    }
+
+    @Test
+    public void blendedCommands_drawAfterOpaqueInLayerOrder() {
+        TestLayer labels = new TestLayer(2);
+        TestLayer routes = new TestLayer(1);
+        TestLayer globe = new TestLayer(0);
+        labels.add(1, 10, mBufferA, 0, 3, RenderQueue.BLEND_PREMULTIPLIED);
+        routes.add(2, 20, mBufferA, 3, 3, RenderQueue.BLEND_ADDITIVE);
+        routes.add(1, 10, mBufferA, 6, 3, RenderQueue.BLEND_PREMULTIPLIED);
+        globe.add(3, 30, mBufferB, 0, 3, RenderQueue.BLEND_OPAQUE);
+        mQueue.addLayer(labels);
+        mQueue.addLayer(routes);
+        mQueue.addLayer(globe);
+
+        mQueue.render(mExecutor);
+
+        List<String> draws = new ArrayList<>();
+        for (String call : mExecutor.calls) {
+            if (call.startsWith("draw")) {
+                draws.add(call);
+            }
+        }
+        assertEquals("draw 0 3", draws.get(0)); // globe, from buffer B
+        assertEquals("draw 3 3", draws.get(1));
+        assertEquals("draw 6 3", draws.get(2));
+        assertEquals("draw 0 3", draws.get(3)); // labels
+    }
+
+    @Test
+    public void layers_areOnlySubmittedWhenChangedAndSkippedWhenEmpty() {
+        TestLayer layer = new TestLayer(0);
+        TestLayer empty = new TestLayer(0);
+        layer.add(1, 10, mBufferA, 0, 3, RenderQueue.BLEND_OPAQUE);
+        empty.add(1, 10, mBufferB, 0, 3, RenderQueue.BLEND_OPAQUE);
+        empty.empty = true;
+        mQueue.addLayer(layer);
+        mQueue.addLayer(empty);
+
+        mQueue.render(mExecutor);
+        mQueue.render(mExecutor);
+        assertEquals(1, layer.submits);
+        assertEquals(0, empty.submits);
+        assertEquals(1, mQueue.layersSkipped);
+        assertEquals(0, mQueue.layersSubmitted);
+        assertEquals(1, mQueue.drawCalls);
+
+        layer.version++;
+        empty.empty = false;
+        mQueue.render(mExecutor);
+        assertEquals(2, layer.submits);
+        assertEquals(1, empty.submits);
+        assertEquals(2, mQueue.drawCalls);
+
+        mQueue.invalidate();
+        mQueue.render(mExecutor);
+        assertEquals(3, layer.submits);
+        assertEquals(2, empty.submits);
+    }
+
+    @Test
+    public void unchangedState_isNotSetAgainNextFrame() {
+        TestLayer layer = new TestLayer(0);
+        layer.add(1, 10, mBufferA, 0, 3, RenderQueue.BLEND_OPAQUE);
+        mQueue.addLayer(layer);
+
+        mQueue.render(mExecutor);
+        mExecutor.calls.clear();
+        mQueue.render(mExecutor);
+
+        // Only the program is bound again, for its per-frame uniforms.
+        assertEquals(1, mQueue.programChanges);
+        assertEquals(0, mQueue.textureChanges);
+        assertEquals(0, mQueue.blendChanges);
+        assertEquals(0, mQueue.bufferChanges);
+        assertEquals(2, mExecutor.calls.size());
+    }
+
+    @Test
+    public void forgetState_setsEverythingAgainWithoutResubmitting() {
+        TestLayer layer = new TestLayer(0);
+        layer.add(1, 10, mBufferA, 0, 3, RenderQueue.BLEND_OPAQUE);
+        mQueue.addLayer(layer);
+
+        mQueue.render(mExecutor);
+        mQueue.forgetState();
+        mQueue.render(mExecutor);
+
+        assertEquals(1, mQueue.textureChanges);
+        assertEquals(1, mQueue.blendChanges);
+        assertEquals(1, mQueue.bufferChanges);
+        assertEquals(0, mQueue.layersSubmitted);
+        assertEquals(1, layer.submits);
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.world3d;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SoftwareRasterizerTest {
+
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 270;
+    private static final int BACKGROUND = 0xff333333;
+
+    /** Texture whose texels encode their own coordinates, so pixels tell which texel was sampled. */
+    private static BufferedImage coordinateTexture(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, x << 12 | y);
+            }
+        }
+        return image;
+    }
+
+    @Test
+    public void render_sameImageForAnyThreadCount() {
+        BufferedImage texture = coordinateTexture(1024, 512);
+        GlobeSnapshot single = new GlobeSnapshot(WIDTH, HEIGHT, 1, texture);
+        GlobeSnapshot parallel = new GlobeSnapshot(WIDTH, HEIGHT, 4, texture);
+        for (float angle = 0; angle < 360; angle += 45) {
+            single.camera.xAngle = angle;
+            parallel.camera.xAngle = angle;
+            assertTrue(Arrays.equals(single.render(), parallel.render()));
+        }
+        single.release();
+        parallel.release();
+    }
+
+    @Test
+    public void render_centerShowsPointFacingEye() {
+        int textureWidth = 1024;
+        int textureHeight = 512;
+        GlobeSnapshot snapshot = new GlobeSnapshot(WIDTH, HEIGHT, 2, coordinateTexture(textureWidth, textureHeight));
+        int[] pixels = snapshot.render();
+
+        // Corners show the clear color, the center shows the globe.
+        assertEquals(BACKGROUND, pixels[0]);
+        assertEquals(BACKGROUND, pixels[WIDTH * HEIGHT - 1]);
+        int center = pixels[HEIGHT / 2 * WIDTH + WIDTH / 2] & 0xffffff;
+        assertNotEquals(BACKGROUND & 0xffffff, center);
+
+        // The eye looks at the globe center, so the screen center shows the point facing the eye.
+        // In model space that point is the eye direction rotated back by the model rotation.
+        double pitch = snapshot.camera.yAngle * Math.PI / 180;
+        double yaw = snapshot.camera.xAngle * Math.PI / 180;
+        double eyeX = 0, eyeY = -Math.sin(pitch), eyeZ = Math.cos(pitch);
+        double modelX = Math.cos(yaw) * eyeX + Math.sin(yaw) * eyeZ;
+        double modelZ = -Math.sin(yaw) * eyeX + Math.cos(yaw) * eyeZ;
+        double theta = Math.atan2(modelZ, modelX);
+        double expectedU = 1 - ((theta + 2 * Math.PI) % (2 * Math.PI)) / (2 * Math.PI);
+        double expectedV = Math.acos(eyeY) / Math.PI;
+
+        double u = ((center >> 12) + 0.5) / textureWidth;
+        double v = ((center & 0xfff) + 0.5) / textureHeight;
+        // Flat facets bend the texture a little compared to a true sphere.
+        assertEquals(expectedU, u, 0.01);
+        assertEquals(expectedV, v, 0.01);
+        snapshot.release();
+    }
+
+    @Test
+    public void cubeFace_invertsTheConverterLayout() {
+        float[] direction = new float[3];
+        float[] st = new float[2];
+        for (int face = 0; face < CubemapConverter.FACES; face++) {
+            for (float t = -0.9f; t < 1f; t += 0.3f) {
+                for (float s = -0.9f; s < 1f; s += 0.3f) {
+                    CubemapConverter.faceDirection(face, s, t, direction);
+                    assertEquals(face, SoftwareRasterizer.cubeFace(direction[0], direction[1], direction[2], st));
+                    assertEquals(s, st[0], 1e-6f);
+                    assertEquals(t, st[1], 1e-6f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void render_cubemapMatchesEquirectangularMap() throws Exception {
+        // The shipped faces were made from the shipped map, so both paths show the same globe up to
+        // filtering. A face in the wrong place or orientation shows up as a large difference.
+        GlobeSnapshot equirectangular = new GlobeSnapshot(WIDTH, HEIGHT, 2,
+                javax.imageio.ImageIO.read(new File(GlobeSnapshot.MAP_PATH)));
+        GlobeSnapshot cubemap = new GlobeSnapshot(WIDTH, HEIGHT, 2, GlobeSnapshot.readFaces());
+        for (float angle = 0; angle < 360; angle += 90) {
+            for (float pitch = -60; pitch <= 60; pitch += 60) {
+                equirectangular.camera.xAngle = angle;
+                equirectangular.camera.yAngle = pitch;
+                cubemap.camera.xAngle = angle;
+                cubemap.camera.yAngle = pitch;
+                int[] expected = equirectangular.render().clone();
+                int[] pixels = cubemap.render();
+                long difference = 0;
+                int globe = 0;
+                for (int i = 0; i < pixels.length; i++) {
+                    if (pixels[i] == BACKGROUND && expected[i] == BACKGROUND) {
+                        continue;
+                    }
+                    globe++;
+                    for (int shift = 0; shift < 24; shift += 8) {
+                        difference += Math.abs((pixels[i] >> shift & 0xff) - (expected[i] >> shift & 0xff));
+                    }
+                }
+                // About 5 at most with the right layout, above 15 with a mirrored face.
+                assertTrue("At " + angle + ", " + pitch, difference < 8L * 3 * globe);
+            }
+        }
+        equirectangular.release();
+        cubemap.release();
+    }
+
+    @Test
+    public void render_mapMatchesGolden() throws Exception {
+        // Written by "GlobeSnapshot src/test/resources/golden_globe.png 480 270" from the module
+        // directory, on the path the app uses: the cube map, linearly filtered, while USE_CUBEMAP is
+        // on. Gates geometry, camera and the map lookup.
+        File golden = new File("src/test/resources/golden_globe.png");
+        assertTrue("Missing " + golden.getAbsolutePath(), golden.exists());
+        BufferedImage expected = javax.imageio.ImageIO.read(golden);
+        GlobeSnapshot snapshot = GlobeSnapshot.forApp(expected.getWidth(), expected.getHeight(), 2);
+        int[] pixels = snapshot.render();
+        int[] reference = expected.getRGB(0, 0, expected.getWidth(), expected.getHeight(), null, 0, expected.getWidth());
+        int different = 0;
+        for (int i = 0; i < pixels.length; i++) {
+            if ((pixels[i] & 0xffffff) != (reference[i] & 0xffffff)) {
+                different++;
+            }
+        }
+        // Allow for rasterization differences along silhouettes and facet edges.
+        assertTrue(different < pixels.length / 100);
+        snapshot.release();
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.world3d;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TouchInputProcessorTest {
+
+    private float xMovement;
+    private float yMovement;
+    private float zoom = 1;
+    private int taps;
+    private TouchInputProcessor input;
+
+    @Before
+    public void setUp() {
+        input = new TouchInputProcessor(new TouchInputProcessor.Listener() {
+            @Override
+            public void onMovement(float x, float y) {
+                xMovement = x;
+                yMovement = y;
+            }
+
+            @Override
+            public void onZoom(float sizeCoef) {
+                zoom = sizeCoef;
+            }
+
+            @Override
+            public void onTap(float x, float y) {
+                taps++;
+            }
+        });
+    }
+
+    @Test
+    public void fling_velocityDoesNotDependOnEventBatching() {
+        // Finger moves right at 2 px/ms and up at 0.5 px/ms, sampled every 4 ms.
+        // Events carry 1 to 4 samples each, with their real timestamps.
+        input.onDown(0, 100, 500);
+        long time = 0;
+        int batch = 1;
+        while (time < 120) {
+            for (int i = 0; i < batch; i++) {
+                time += 4;
+                input.onMove(time, 1, 100 + time * 2f, 500 - time * 0.5f, 0, 0);
+            }
+            input.onMoveEnd();
+            batch = batch % 4 + 1;
+        }
+        input.onUp(time, 100 + time * 2f, 500 - time * 0.5f);
+
+        float expectedX = -2f * TouchInputProcessor.FRAME_TIME_MS * TouchInputProcessor.MOVEMENT_PER_PIXEL;
+        float expectedY = 0.5f * TouchInputProcessor.FRAME_TIME_MS * TouchInputProcessor.MOVEMENT_PER_PIXEL;
+        assertEquals(expectedX, xMovement, 1e-3f);
+        assertEquals(expectedY, yMovement, 1e-3f);
+        assertEquals(0, taps);
+    }
+
+    @Test
+    public void fling_stopsWhenFingerRestedBeforeLifting() {
+        input.onDown(0, 100, 100);
+        for (long time = 8; time <= 80; time += 8) {
+            input.onMove(time, 1, 100 + time, 100, 0, 0);
+            input.onMoveEnd();
+        }
+        // Held still for 200 ms, then lifted.
+        input.onMove(280, 1, 180, 100, 0, 0);
+        input.onMoveEnd();
+        input.onUp(280, 180, 100);
+        assertEquals(0f, xMovement, 1e-6f);
+    }
+
+    @Test
+    public void drag_sumsAllSamplesOfAnEvent() {
+        input.onDown(0, 0, 0);
+        input.onMove(5, 1, 10, 0, 0, 0);
+        input.onMove(10, 1, 25, 5, 0, 0);
+        input.onMove(15, 1, 50, 10, 0, 0);
+        input.onMoveEnd();
+        assertEquals(-50 * TouchInputProcessor.MOVEMENT_PER_PIXEL, xMovement, 1e-6f);
+        assertEquals(-10 * TouchInputProcessor.MOVEMENT_PER_PIXEL, yMovement, 1e-6f);
+    }
+
+    @Test
+    public void pinch_scalesByDistanceRatio() {
+        input.onDown(0, 100, 100);
+        input.onPointerDown(100, 100, 300, 100);
+        // Fingers move twice as far apart: zoom in by two.
+        input.onMove(10, 2, 100, 100, 350, 100);
+        input.onMove(20, 2, 100, 100, 500, 100);
+        input.onMoveEnd();
+        assertEquals(0.5f, zoom, 1e-6f);
+
+        // Moving back to the start distance restores the zoom, however many events it takes.
+        input.onMove(30, 2, 100, 100, 400, 100);
+        input.onMoveEnd();
+        input.onMove(40, 2, 100, 100, 300, 100);
+        input.onMoveEnd();
+        assertEquals(1f, zoom, 1e-6f);
+
+        // Clamped to the zoom range.
+        input.onMove(50, 2, 100, 100, 10000, 100);
+        input.onMoveEnd();
+        assertEquals(TouchInputProcessor.MIN_ZOOM, zoom, 0f);
+    }
+
+    @Test
+    public void tap_onlyWithoutMovement() {
+        input.onDown(0, 50, 50);
+        input.onUp(100, 50, 50);
+        assertEquals(1, taps);
+
+        input.onDown(200, 50, 50);
+        input.onMove(210, 1, 60, 50, 0, 0);
+        input.onMoveEnd();
+        input.onUp(220, 60, 50);
+        assertEquals(1, taps);
+    }
+}
@@ -0,0 +1,290 @@
+package com.example.world3d;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Headless replay of an input trace through the app's own TouchInputProcessor, IntentChannel,
+ * CameraMotion, GlobeCamera and GlobePicker, with frames simulated at 60 fps on the trace's clock. Reports the time
+ * spent per stage and checksums of the final camera and overlay state, so builds can be compared.
+ * Arguments: trace file, then optionally --expect-camera HEX, --expect-overlay HEX and
+ * --max-mean-us N; any violated expectation exits with status 1.
+ * With "--generate FILE" it writes a synthetic session instead: drag, fling, pinch and taps. */
+public class TraceReplay implements TouchInputProcessor.Listener {
+
+    /** Time spent in one stage of the replay. */
+    public static class Stage {
+        public final String name;
+        public long count;
+        public long totalNanos;
+        public long maxNanos;
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        void add(long nanos) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        public double meanMicros() {
+            return count > 0 ? totalNanos / 1000.0 / count : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-7s %8d calls  mean %8.2f us  max %8.2f us", name, count, meanMicros(),
+                    maxNanos / 1000.0);
+        }
+    }
+
+    /** Frames simulated after the last record at most, to let momentum run out. */
+    private static final int SETTLE_FRAMES = 600;
+
+    private final TouchInputProcessor mProcessor = new TouchInputProcessor(this);
+    private final IntentChannel mIntents = new IntentChannel();
+    private final CameraMotion mMotion = new CameraMotion();
+    private final GlobeCamera mCamera = new GlobeCamera();
+    private final CameraSnapshot mSnapshot = new CameraSnapshot();
+    private final GlobePicker mPicker = new GlobePicker();
+    private final int mWidth;
+    private final int mHeight;
+    /** Radius and overlay size of OpenGLRenderer. */
+    private final float mRadius = 2f;
+    private final int mOverlayWidth = 1920;
+    private final int mOverlayHeight = 960;
+
+    public int frames = 0;
+    public int taps = 0;
+    public int markers = 0;
+    public float markerX = Float.NaN;
+    public float markerY = Float.NaN;
+
+    public final Stage decode = new Stage("decode");
+    public final Stage input = new Stage("input");
+    public final Stage frame = new Stage("frame");
+    public final Stage pick = new Stage("pick");
+
+    public TraceReplay(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /** Replays a whole trace, then lets the globe come to rest. */
+    public void run(InputTrace.Reader reader) throws IOException {
+        double nextFrame = Double.NaN;
+        while (true) {
+            long start = System.nanoTime();
+            boolean more = reader.next();
+            decode.add(System.nanoTime() - start);
+            if (!more) {
+                break;
+            }
+            if (Double.isNaN(nextFrame)) {
+                nextFrame = reader.time;
+            }
+            // Draw every frame that was due before this record arrived.
+            while (nextFrame <= reader.time) {
+                drawFrame();
+                nextFrame += TouchInputProcessor.FRAME_TIME_MS;
+            }
+            start = System.nanoTime();
+            reader.dispatch(mProcessor);
+            input.add(System.nanoTime() - start);
+        }
+        for (int i = 0; i < SETTLE_FRAMES; i++) {
+            drawFrame();
+            if (mMotion.xMovement == 0 && mMotion.yMovement == 0) {
+                break;
+            }
+        }
+    }
+
+    private void drawFrame() {
+        // Same steps as OpenGLRenderer.onDrawFrame(), applyIntents() and publishCamera().
+        long start = System.nanoTime();
+        if (mIntents.apply(mMotion, mCamera) && mIntents.markerRequested) {
+            markers++;
+            markerX = mIntents.markerX;
+            markerY = mIntents.markerY;
+        }
+        mMotion.step();
+        mCamera.xAngle = mMotion.xAngle;
+        mCamera.yAngle = mMotion.yAngle;
+        mCamera.update(mWidth, mHeight);
+        mCamera.snapshot(mSnapshot);
+        frames++;
+        frame.add(System.nanoTime() - start);
+    }
+
+    @Override
+    public void onMovement(float xMovement, float yMovement) {
+        mIntents.postMovement(xMovement, yMovement);
+    }
+
+    @Override
+    public void onZoom(float sizeCoef) {
+        mIntents.postZoom(sizeCoef);
+    }
+
+    @Override
+    public void onTap(float x, float y) {
+        taps++;
+        if (mSnapshot.viewportWidth == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        mPicker.pick(mSnapshot, null, mRadius, x, y);
+        pick.add(System.nanoTime() - start);
+        if (mPicker.isMarkerAllowed()) {
+            mIntents.postMarker(mPicker.u * mOverlayWidth, mPicker.v * mOverlayHeight);
+        }
+    }
+
+    public CameraMotion getMotion() {
+        return mMotion;
+    }
+
+    public float getZoom() {
+        return mCamera.scale;
+    }
+
+    /** Checksum of the final rotation, zoom and combined matrix. */
+    public long cameraChecksum() {
+        ByteBuffer state = ByteBuffer.allocate(4 * 19);
+        state.putFloat(mMotion.xAngle).putFloat(mMotion.yAngle).putFloat(mCamera.scale);
+        for (float value : mCamera.mvpMatrix) {
+            state.putFloat(value);
+        }
+        return crc(state);
+    }
+
+    /** Checksum of what the overlay shows: how many markers were placed and where the last one is. */
+    public long overlayChecksum() {
+        ByteBuffer state = ByteBuffer.allocate(4 * 4);
+        state.putInt(taps).putInt(markers).putFloat(markerX).putFloat(markerY);
+        return crc(state);
+    }
+
+    private static long crc(ByteBuffer state) {
+        CRC32 crc = new CRC32();
+        crc.update(state.array(), 0, state.position());
+        return crc.getValue();
+    }
+
+    /**
+     * Writes a synthetic session: a slow drag, a fling, a pinch zoom and two taps, with several
+     * samples per move event like real MotionEvents carry. */
+    public static void generate(OutputStream out) throws IOException {
+        InputTrace.Writer trace = new InputTrace.Writer(out, null);
+        long time = 1000;
+
+        // Drag to the left, 3 samples per event, 4 ms apart.
+        trace.onDown(time, 900, 500);
+        for (int event = 1; event <= 40; event++) {
+            for (int sample = 0; sample < 3; sample++) {
+                time += 4;
+                trace.onMove(time, 1, 900 - (event * 3 + sample) * 1.5f, 500 + (event * 3 + sample) * 0.2f, 0, 0);
+            }
+            trace.onMoveEnd();
+        }
+        trace.onUp(time + 2, 900 - 123 * 1.5f, 500 + 123 * 0.2f);
+
+        // Fast fling to the right.
+        time += 500;
+        trace.onDown(time, 300, 600);
+        for (int event = 1; event <= 6; event++) {
+            time += 8;
+            trace.onMove(time, 1, 300 + event * 40, 600 - event * 10, 0, 0);
+            trace.onMoveEnd();
+        }
+        trace.onUp(time + 4, 300 + 6 * 40 + 20, 600 - 6 * 10 - 5);
+
+        // Pinch out.
+        time += 700;
+        trace.onDown(time, 500, 500);
+        trace.onPointerDown(500, 500, 600, 500);
+        for (int event = 1; event <= 20; event++) {
+            time += 16;
+            trace.onMove(time, 2, 500 - event * 5, 500, 600 + event * 5, 500);
+            trace.onMoveEnd();
+        }
+        trace.onPointerUp();
+        trace.onUp(time + 16, 400, 500);
+
+        // Taps near the center and near a corner.
+        time += 1500;
+        trace.onDown(time, 540, 960);
+        trace.onUp(time + 80, 540, 960);
+        time += 600;
+        trace.onDown(time, 10, 10);
+        trace.onUp(time + 70, 10, 10);
+        trace.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 2 && args[0].equals("--generate")) {
+            OutputStream out = new FileOutputStream(args[1]);
+            generate(out);
+            System.out.println("Wrote " + args[1]);
+            return;
+        }
+        if (args.length < 1) {
+            System.err.println("Usage: TraceReplay <trace> [--expect-camera HEX] [--expect-overlay HEX] [--max-mean-us N]"
+                    + " | --generate <trace>");
+            System.exit(2);
+        }
+
+        // Viewport of a 1080p phone in portrait.
+        TraceReplay replay = new TraceReplay(1080, 1920);
+        InputStream in = new FileInputStream(args[0]);
+        long start = System.nanoTime();
+        InputTrace.Reader reader = new InputTrace.Reader(in);
+        try {
+            replay.run(reader);
+        } finally {
+            reader.close();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        String camera = Long.toHexString(replay.cameraChecksum());
+        String overlay = Long.toHexString(replay.overlayChecksum());
+        System.out.println(replay.decode);
+        System.out.println(replay.input);
+        System.out.println(replay.frame);
+        System.out.println(replay.pick);
+        System.out.println(String.format("total   %.2f ms, %d frames, %d taps, %d markers",
+                elapsed / 1e6, replay.frames, replay.taps, replay.markers));
+        System.out.println("camera  " + camera);
+        System.out.println("overlay " + overlay);
+
+        boolean failed = false;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--expect-camera") && !args[i + 1].equals(camera)) {
+                System.out.println("FAIL camera checksum, expected " + args[i + 1]);
+                failed = true;
+            } else if (args[i].equals("--expect-overlay") && !args[i + 1].equals(overlay)) {
+                System.out.println("FAIL overlay checksum, expected " + args[i + 1]);
+                failed = true;
+            } else if (args[i].equals("--max-mean-us")) {
+                double budget = Double.parseDouble(args[i + 1]);
+                for (Stage stage : new Stage[] {replay.decode, replay.input, replay.frame, replay.pick}) {
+                    if (stage.meanMicros() > budget) {
+                        System.out.println("FAIL " + stage.name + " mean above " + budget + " us");
+                        failed = true;
+                    }
+                }
+            }
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+}
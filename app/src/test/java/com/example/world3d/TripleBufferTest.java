@@ -0,0 +1,84 @@
+package com.example.world3d;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class TripleBufferTest {
+
+    @Test
+    public void update_onlyReportsNewStates() {
+        TripleBuffer<InputIntent> buffer = new TripleBuffer<>(new InputIntent(), new InputIntent(), new InputIntent());
+        assertFalse(buffer.update());
+
+        buffer.getBack().markerSequence = 1;
+        buffer.publish();
+        buffer.getBack().markerSequence = 2;
+        buffer.publish();
+
+        // Only the newest of several publishes is seen.
+        assertTrue(buffer.update());
+        assertEquals(2, buffer.getFront().markerSequence);
+        assertFalse(buffer.update());
+        assertEquals(2, buffer.getFront().markerSequence);
+    }
+
+    /**
+     * A writer publishes camera snapshots whose fields all hold the same counter while a reader keeps
+     * picking them up. Any mix of values within one snapshot would be a torn read. */
+    @Test(timeout = 60000)
+    public void concurrentPublishAndUpdate_neverTearsOrGoesBack() throws Exception {
+        final int publishes = 2000000;
+        final TripleBuffer<CameraSnapshot> buffer =
+                new TripleBuffer<>(new CameraSnapshot(), new CameraSnapshot(), new CameraSnapshot());
+        final AtomicReference<String> failure = new AtomicReference<>();
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= publishes; i++) {
+                    CameraSnapshot snapshot = buffer.getBack();
+                    snapshot.xAngle = i;
+                    for (int j = 0; j < 16; j++) {
+                        snapshot.inverseViewMatrix[j] = i;
+                        snapshot.inverseProjectionMatrix[j] = i;
+                    }
+                    snapshot.viewportWidth = i;
+                    buffer.publish();
+                }
+            }
+        });
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int last = 0;
+                while (last < publishes && failure.get() == null) {
+                    if (!buffer.update()) {
+                        continue;
+                    }
+                    CameraSnapshot snapshot = buffer.getFront();
+                    int value = snapshot.viewportWidth;
+                    if (value <= last) {
+                        failure.set("Went back from " + last + " to " + value);
+                    }
+                    for (int j = 0; j < 16; j++) {
+                        if (snapshot.inverseViewMatrix[j] != value || snapshot.inverseProjectionMatrix[j] != value
+                                || snapshot.xAngle != value) {
+                            failure.set("Torn snapshot " + value);
+                        }
+                    }
+                    last = value;
+                }
+            }
+        });
+
+        writer.start();
+        reader.start();
+        writer.join();
+        reader.join();
+        assertNull(failure.get());
+    }
+}